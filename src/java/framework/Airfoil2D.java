@@ -193,6 +193,11 @@ public class Airfoil2D {
     public double getPrimalCFL(){return m_primalCFL;}
     public double getAdjointCFL(){return m_adjointCFL;}
     
+    // Primal warm-start (see Solver.runPrimalWithWarmStart)
+    public void setConvergenceMonitor(ConvergenceMonitor c){solver.setConvergenceMonitor(c);}
+    public void setPrimalSwitchResidualDrop(double d){solver.setPrimalSwitchResidualDrop(d);}
+    public void setGridSequencingLevels(int n){solver.setGridSequencingLevels(n);}
+    
     // Reports 
     public void setMomentOrigin(double d){m_momentOrigin = d;}
     
@@ -289,6 +294,12 @@ public class Airfoil2D {
     // This method runs the primal solver
     public void runPrimalSolver(int numberOfSteps){solver.runPrimal(numberOfSteps);}
     
+    // This method runs the primal solver on a fresh mesh: grid sequencing 
+    // initialization (if set), 1st-order, then 2nd-order
+    public void runPrimalSolverWithWarmStart(int numberOf1stOrderSteps, int numberOf2ndOrderSteps){
+        solver.runPrimalWithWarmStart(numberOf1stOrderSteps, numberOf2ndOrderSteps);
+    }
+    
     // This method runs the adjoint solver
     public void runAdjointSolver(int numberOfSteps){solver.runAdjoint(numberOfSteps);}
 
@@ -15,7 +15,11 @@ public interface Blackbox {
     void setAngleOfAttack(double angle);
     double getFunctionValue(String functionName);
     double getPartialDerivative(String functionName, DesignVariable designVariable);
+    double[] getGradient(String functionName, ArrayList<DesignVariable> designVariables);
     void runPrimalSolver(int numberOfSteps); 
     void runAdjointSolver(int numberOfSteps);
     void updateControlPoints(ArrayList<DesignVariable> designVariables); 
+    String getFailureReason(); 
+    String getGradientFailureReason(); 
+    double getGradientAccuracy(); 
 }
@@ -8,6 +8,7 @@ import star.common.*;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
 /**
  *
  * @author shb
@@ -29,6 +30,7 @@ public class CFDModel implements Blackbox {
     private final Morpher morpher; 
     private final Toolbox toolbox;
     public FlightCondition flightCondition;
+    private SnapshotLibrary m_snapshotLibrary; // null = no snapshots
 
     // - Flags -
     private boolean m_isFlow2D;
@@ -82,17 +84,105 @@ public class CFDModel implements Blackbox {
             int row = designVariable.getControlPointTableRow(); 
             int col = designVariable.getControlPointTableCol()-3; 
             String controlPointTableName = designVariable.getControlPointTableID(); 
+            solver.computeAdjointProduct("MeshSensitivity"); // unless already up to date
             TableData tableData = toolbox.getGradientTableData(functionName,controlPointTableName);
             return tableData.getSeries(col)[row]; 
         }
     }  
     
+    // This method returns the gradient of the function w.r.t. every design 
+    // variable in the list. Unlike calling getPartialDerivative() for each one,
+    // each gradient table is extracted only once and then sliced. 
+    public double[] getGradient(String functionName, ArrayList<DesignVariable> designVariables){
+        double[] gradient = new double[designVariables.size()]; 
+        HashMap<String,TableData> tables = new HashMap(); 
+        HashMap<String,double[]> series = new HashMap(); 
+        for (int i = 0; i < designVariables.size(); i++){
+            DesignVariable designVariable = designVariables.get(i); 
+            if (designVariable.getVarName().equals("alpha")){
+                gradient[i] = getAlphaDerivative(functionName);
+            }
+            else {
+                int row = designVariable.getControlPointTableRow(); 
+                int col = designVariable.getControlPointTableCol()-3; 
+                String controlPointTableName = designVariable.getControlPointTableID(); 
+                TableData tableData = tables.get(controlPointTableName); 
+                if (tableData == null){
+                    solver.computeAdjointProduct("MeshSensitivity"); // unless already up to date
+                    tableData = toolbox.getGradientTableData(functionName,controlPointTableName);
+                    tables.put(controlPointTableName, tableData); 
+                }
+                String key = controlPointTableName + "," + col; 
+                double[] column = series.get(key); 
+                if (column == null){
+                    column = tableData.getSeries(col); 
+                    series.put(key, column); 
+                }
+                gradient[i] = column[row]; 
+            }
+        }
+        return gradient; 
+    }
+    
     // This method updates the control points 
     public void updateControlPoints(ArrayList<DesignVariable> designVariables){
+        solver.clearPrimalDesign(); // primal solution no longer matches the mesh
+        double fingerprint = morpher.getFingerprint(designVariables);
+        if (morpher.isMorphed(fingerprint)){return;} // mesh already deformed to these control points
+        morpher.clearMorphed(); // in case we stop half way
         morpher.update(designVariables);
         morpher.morph();
+        morpher.setMorphed(fingerprint);
+    }
+    
+    // This method sets (gets) the library of converged solutions used to 
+    // initialize new evaluations
+    public void setSnapshotLibrary(SnapshotLibrary s){m_snapshotLibrary = s;}
+    public SnapshotLibrary getSnapshotLibrary(){return m_snapshotLibrary;}
+    
+    // This method returns the key under which the current solution is stored 
+    // in the snapshot library: flight condition, scaled to order one, followed
+    // by the (scaled) design vector x, if any
+    public double[] getSnapshotKey(double[] x){
+        double[] key = new double[4 + x.length]; 
+        key[0] = flightCondition.getMachNumber(); 
+        key[1] = flightCondition.getAngleOfAttack()/10.0; // deg
+        key[2] = flightCondition.getFreestreamTemperature()/288.15; // K
+        key[3] = (flightCondition.getReferencePressure() + flightCondition.getFreestreamGaugePressure())/101325.0; // Pa
+        System.arraycopy(x, 0, key, 4, x.length);
+        return key; 
     }
     
+    // This method initializes the solution from the nearest snapshot (returns
+    // false if there is none, in which case the solution is left as is)
+    public boolean initializeFromSnapshot(double[] key){
+        if (m_snapshotLibrary == null){return false;}
+        String filepath = m_snapshotLibrary.getNearest(key); 
+        if (filepath == null){return false;}
+        toolbox.print("Initializing solution from " + filepath);
+        solver.initializeSolution(filepath);
+        return true; 
+    }
+    
+    // This method stores the current solution in the snapshot library (only
+    // if the last primal run converged)
+    public void saveSnapshot(double[] key){
+        if (m_snapshotLibrary == null || !solver.isLastPrimalConverged()){return;}
+        String filepath = m_snapshotLibrary.getNewPath(); 
+        solver.exportSolution(filepath);
+        m_snapshotLibrary.add(key, filepath);
+    }
+    
+    // This method returns why the last evaluation failed ("" if it did not)
+    public String getFailureReason(){return solver.getFailureReason();}
+    
+    // This method returns why the last adjoint run failed ("" if it did not), 
+    // in which case its gradients are not to be trusted
+    public String getGradientFailureReason(){return solver.isAdjointFailed() ? solver.getAdjointStopReason() : "";}
+    
+    // This method returns the relative accuracy of the last gradients (NaN if unknown)
+    public double getGradientAccuracy(){return solver.getGradientAccuracy();}
+    
     // This method runs the primal solver
     public void runPrimalSolver(int numberOfSteps){solver.runPrimal(numberOfSteps);}
     
@@ -105,21 +195,22 @@ public class CFDModel implements Blackbox {
     }
     public void save(){simulation.saveState(simulation.getSessionPath());}
     
-    // -------------------------------------------------------------------------
-    // ---------------------- P R I V A T E   M E T H O D S --------------------
-    // -------------------------------------------------------------------------
+    // This method records an evaluation with the save policy, and saves the 
+    // simulation (or its restart artifacts) if due (see SavePolicy)
+    public void save(SavePolicy policy, double objective){
+        solver.saveState(policy, objective, simulation.getSessionPath());
+    }
     
-    // This method computes the alpha partial derivative at alpha = a0: 
-    // df_dalpha = df_ddx * ddx_dalpha + df_ddy * ddy_dalpha 
-    //           = df_ddx * (-sin(a0)) + df_ddy * ( cos(a0)) 
-    // dx = cos(alpha) <---- flow direction along x 
-    // dy = sin(alpha) <---- flow direction along y 
-    // 
-    // N.B. the adjoint w.r.t. alpha requires 2 "boundary parameter sensitivity"
-    // reports, which is only available in Star-CCM+ version 11.06.XXX onward: 
-    // "d" + functionName + "d_dX" (e.g. dCL_dX) <----- sensitivity w.r.t. dx
-    // "d" + functionName + "d_dY" (e.g. dCL_dY) <----- sensitivity w.r.t. dy
-    private double getAlphaDerivative(String functionName){
+    // This method initializes the solution from the restart artifacts of the 
+    // last evaluation (returns false if there are none)
+    public boolean restoreArtifacts(){return solver.restoreArtifacts(simulation.getSessionPath());}
+    
+    // This method creates the reports of the alpha partial derivative of the 
+    // function (see getAlphaDerivative), if they don't exist, and returns the 
+    // name of the report holding it. Created before the adjoint is run, the 
+    // report gives the adjoint convergence monitor a sensitivity to track 
+    // whatever the design variables (e.g. shape only). 
+    public String createAlphaDerivativeReport(String functionName){
         // Create boundary parameter sensitivity reports if they don't exist
         toolbox.createBoundaryParameterSensitivityReport(
                                             m_fluidRegionName,
@@ -145,7 +236,24 @@ public class CFDModel implements Blackbox {
             toolbox.createForceExpressionReport("Gradient of " + functionName + " w.r.t. angle-of-attack",
                     "(3.14159/180)*(${Gradientof" + functionName + "w.r.t.FlowDirection[0]Report}*(-sin($alpha)) + ${Gradientof" + functionName + "w.r.t.FlowDirection[2]Report}*cos($alpha))");
         }
-        double df_dalpha = toolbox.getReportValue("Gradient of " + functionName + " w.r.t. angle-of-attack"); 
-        return df_dalpha;  
+        return "Gradient of " + functionName + " w.r.t. angle-of-attack"; 
+    }
+    
+    // -------------------------------------------------------------------------
+    // ---------------------- P R I V A T E   M E T H O D S --------------------
+    // -------------------------------------------------------------------------
+    
+    // This method computes the alpha partial derivative at alpha = a0: 
+    // df_dalpha = df_ddx * ddx_dalpha + df_ddy * ddy_dalpha 
+    //           = df_ddx * (-sin(a0)) + df_ddy * ( cos(a0)) 
+    // dx = cos(alpha) <---- flow direction along x 
+    // dy = sin(alpha) <---- flow direction along y 
+    // 
+    // N.B. the adjoint w.r.t. alpha requires 2 "boundary parameter sensitivity"
+    // reports, which is only available in Star-CCM+ version 11.06.XXX onward: 
+    // "d" + functionName + "d_dX" (e.g. dCL_dX) <----- sensitivity w.r.t. dx
+    // "d" + functionName + "d_dY" (e.g. dCL_dY) <----- sensitivity w.r.t. dy
+    private double getAlphaDerivative(String functionName){
+        return toolbox.getReportValue(createAlphaDerivativeReport(functionName)); 
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,147 @@
+/*
+ * The purpose of this class is to vary the Courant number (CFL) of the primal
+ * solver during a run, rather than using a single value throughout. The CFL
+ * is updated between iteration chunks, according to one of the following
+ * policies:
+ *
+ *  "Constant"      CFL stays at its initial value
+ *  "Linear"        CFL increases by a fixed increment after every chunk
+ *  "Geometric"     CFL is multiplied by a fixed factor after every chunk
+ *  "Adaptive"      CFL is multiplied by a fixed factor, but only after chunks
+ *                  in which the residual decreased (otherwise it is held)
+ *
+ * Except for "Constant", the CFL is cut back whenever the residual grows by
+ * more than the specified tolerance (or becomes NaN), and the ramp resumes
+ * from the reduced value. The CFL always stays between the min and max.
+ *
+ * A run from a fresh solution starts from the initial CFL (the solver's
+ * primal CFL, unless set here). A run that continues from the previous one
+ * (warm restart, e.g. next design of an optimization) picks up the CFL where
+ * the previous run left it, so that the ramp is not paid again every run.
+ *
+ * This class knows nothing about Star-CCM+: the solver feeds it the largest
+ * residual after each chunk by calling update(), and applies the CFL returned.
+ */
+
+package framework;
+
+import java.util.ArrayList;
+
+/**
+ *
+ * @author shb
+ */
+public class CFLSchedule {
+
+    // --- Properties
+    private String m_policy;
+    private ArrayList<String> m_residualNames;
+    private double m_initialCFL;
+    private double m_minimumCFL;
+    private double m_maximumCFL;
+    private double m_increment;         // "Linear"
+    private double m_growthFactor;      // "Geometric", "Adaptive"
+    private double m_backoffFactor;     // applied on residual growth
+    private double m_growthTolerance;   // residual ratio considered growth
+    private double m_CFL;
+    private double m_previousResidual;
+
+    // --- Constructor
+    public CFLSchedule(String policy){
+        m_policy = policy;
+        m_residualNames = new ArrayList();
+        m_initialCFL = Double.NaN; // primal CFL
+        m_minimumCFL = 0.5;
+        m_maximumCFL = 50.0;
+        m_increment = 1.0;
+        m_growthFactor = 1.2;
+        m_backoffFactor = 0.5;
+        m_growthTolerance = 1.5;
+        reset();
+    }
+
+    // -------------------------------------------------------------------------
+    // ---------------------- P U B L I C   M E T H O D S ----------------------
+    // -------------------------------------------------------------------------
+
+    // This method forgets the current CFL, so that the next run starts from
+    // the initial CFL (call when the solution is cleared)
+    public final void reset(){
+        m_CFL = Double.NaN;
+        m_previousResidual = Double.NaN;
+    }
+
+    // This method returns the CFL to start a run with (call before each run):
+    // the current CFL if there is one (warm restart), otherwise the initial
+    // CFL, or the given one (e.g. the solver's primal CFL) if that is not set
+    public double start(double CFL){
+        if (Double.isNaN(m_CFL)){m_CFL = clip(Double.isNaN(m_initialCFL) ? CFL : m_initialCFL);}
+        m_previousResidual = Double.NaN; // histories may have been cleared
+        return m_CFL;
+    }
+
+    // This method returns the CFL to use for the next chunk, given the largest
+    // residual at the end of the last chunk
+    public double update(double residual){
+        boolean isFirst = Double.isNaN(m_previousResidual);
+        boolean isGrowing = Double.isNaN(residual) || Double.isInfinite(residual)
+                            || (!isFirst && residual > m_growthTolerance*m_previousResidual);
+        boolean isDecreasing = !isFirst && residual < m_previousResidual;
+        switch (m_policy) {
+            case "Constant":
+                break;
+            case "Linear":
+                m_CFL = isGrowing ? m_CFL*m_backoffFactor : m_CFL + m_increment;
+                break;
+            case "Geometric":
+                m_CFL = isGrowing ? m_CFL*m_backoffFactor : m_CFL*m_growthFactor;
+                break;
+            case "Adaptive":
+                if (isGrowing){m_CFL = m_CFL*m_backoffFactor;}
+                else if (isDecreasing){m_CFL = m_CFL*m_growthFactor;}
+                break;
+        }
+        m_CFL = clip(m_CFL);
+        if (!Double.isNaN(residual) && !Double.isInfinite(residual)){m_previousResidual = residual;}
+        return m_CFL;
+    }
+
+    // This method returns the current CFL (NaN before the first run)
+    public double getCFL(){return m_CFL;}
+
+    // This method sets (gets) the policy ("Constant", "Linear", "Geometric", "Adaptive")
+    public void setPolicy(String s){m_policy = s;}
+    public String getPolicy(){return m_policy;}
+
+    // This method sets (gets) the names of the residual monitors to watch
+    public void setResidualNames(ArrayList<String> names){m_residualNames = names;}
+    public ArrayList<String> getResidualNames(){return m_residualNames;}
+
+    // These methods set (get) the CFL range (NaN initial CFL = start from the
+    // solver's primal CFL)
+    public void setInitialCFL(double d){m_initialCFL = d;}
+    public double getInitialCFL(){return m_initialCFL;}
+    public void setMinimumCFL(double d){m_minimumCFL = d;}
+    public double getMinimumCFL(){return m_minimumCFL;}
+    public void setMaximumCFL(double d){m_maximumCFL = d;}
+    public double getMaximumCFL(){return m_maximumCFL;}
+
+    // These methods set (get) how fast the CFL ramps up and backs off
+    public void setIncrement(double d){m_increment = d;}
+    public double getIncrement(){return m_increment;}
+    public void setGrowthFactor(double d){m_growthFactor = d;}
+    public double getGrowthFactor(){return m_growthFactor;}
+    public void setBackoffFactor(double d){m_backoffFactor = d;}
+    public double getBackoffFactor(){return m_backoffFactor;}
+    public void setGrowthTolerance(double d){m_growthTolerance = d;}
+    public double getGrowthTolerance(){return m_growthTolerance;}
+
+    // -------------------------------------------------------------------------
+    // ---------------------- P R I V A T E   M E T H O D S --------------------
+    // -------------------------------------------------------------------------
+
+    // This method keeps the CFL within range
+    private double clip(double CFL){
+        return Math.max(m_minimumCFL, Math.min(m_maximumCFL, CFL));
+    }
+}
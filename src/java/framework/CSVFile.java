@@ -10,6 +10,12 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 
 /**
@@ -21,21 +27,25 @@ public class CSVFile {
     // --- Properties 
     private 
             String m_filepath; 
-            List<String[]> csvtable;
+            List<String[]> csvtable; // row storage (used for writing)
+            String[][] m_columns; // column storage, without header row
+            HashMap<String,Integer> m_headerIndex; // header -> column number
+            HashMap<Integer,HashMap<String,Integer>> m_rowIndex; // column -> (item -> row)
             File inputFile;
             int numRows; 
             int numCols;
+            long m_lastModified; // file time stamp when last read or written
+            long m_length; // file size when last read or written
+            boolean m_isBuffered; // edits stay in memory until commit()
+            boolean m_isModified; // in-memory table differs from file
     
     // --- Constructor 
     public CSVFile(String filepath){
         m_filepath = filepath;
+        m_rowIndex = new HashMap();
         try {
             inputFile = new File(m_filepath);
-            try (CSVReader reader = new CSVReader(new FileReader(inputFile), ',')) {
-                csvtable = reader.readAll();
-            } 
-            numRows = csvtable.size(); 
-            numCols = csvtable.get(0).length;
+            load();
         }
         catch (IOException e) {
             System.out.println("Caught IOException: " + e.getMessage()); 
@@ -54,14 +64,71 @@ public class CSVFile {
         update(String.valueOf(value),row,col); 
     }
     public void update(String str,int row, int col) throws IOException {
-        try (CSVReader reader = new CSVReader(new FileReader(inputFile), ',')) {
-            csvtable = reader.readAll();
-            csvtable.get(row)[col] = str; 
+        if (!m_isBuffered){reloadIfChanged();}
+        String[] line = csvtable.get(row); 
+        if (!str.equals(line[col])){
+            line[col] = str; 
+            m_isModified = true; 
+            if (row == 0){indexHeaders();}
+            else {
+                m_columns[col][row-1] = str;
+                m_rowIndex.remove(col); // rebuilt on next lookup
+            } 
         }
-        try (CSVWriter writer = new CSVWriter(new FileWriter(inputFile), ',',CSVWriter.NO_QUOTE_CHARACTER, CSVWriter.NO_ESCAPE_CHARACTER)) {
-            writer.writeAll(csvtable);
-            writer.flush();
+        if (!m_isBuffered){commit();}
+    }
+    
+    // This method turns buffered mode on or off. In buffered mode, update() 
+    // only edits the in-memory table and nothing is written until commit() is
+    // called. Turning buffered mode off commits any pending edits. 
+    public void setBuffered(boolean b) throws IOException {
+        m_isBuffered = b; 
+        if (!b){commit();}
+    }
+    public boolean isBuffered(){return m_isBuffered;}
+    
+    // This method returns true if there are edits not yet written to file
+    public boolean isModified(){return m_isModified;}
+    
+    // This method writes the in-memory table to file, but only if something 
+    // changed. The table is written to a temporary file in the same directory,
+    // which is then renamed over the original, so that a reader never sees a 
+    // half-written file (e.g. the optimizer reading DependentVariables.csv).
+    // The temporary file is created like any other file (not with the owner-
+    // only permissions of Files.createTempFile) and takes the permissions of
+    // the original, so that others sharing the directory can still read it.
+    public void commit() throws IOException {
+        if (!m_isModified){return;}
+        Path target = inputFile.getAbsoluteFile().toPath(); 
+        Path temp = target.resolveSibling(inputFile.getName() + "." + System.nanoTime() + ".tmp"); 
+        Files.createFile(temp); 
+        try {
+            if (Files.exists(target)){
+                try {Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(target));}
+                catch (UnsupportedOperationException e){} // not a POSIX file system
+            }
+            try (CSVWriter writer = new CSVWriter(new FileWriter(temp.toFile()), ',',CSVWriter.NO_QUOTE_CHARACTER, CSVWriter.NO_ESCAPE_CHARACTER)) {
+                writer.writeAll(csvtable);
+                writer.flush();
+            }
+            try {Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);}
+            catch (AtomicMoveNotSupportedException e){Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);}
         }
+        finally {Files.deleteIfExists(temp);}
+        m_isModified = false; 
+        m_lastModified = inputFile.lastModified();
+        m_length = inputFile.length();
+    }
+
+    // This method returns the item in a specific cell (row,col), where row 0 
+    // is the header row (null if the cell does not exist)
+    public String getItem(int row, int col){
+        try {reloadIfChanged();}
+        catch (IOException e) {System.out.println("Caught IOException: " + e.getMessage());}
+        if (row < 0 || row >= numRows){return null;}
+        String[] line = csvtable.get(row);
+        if (col < 0 || col >= line.length){return null;}
+        return line[col];
     }
 
      // This methods extracts the specified column from the CSV file 
@@ -70,62 +137,60 @@ public class CSVFile {
          return getColumn(columnName); 
      } 
      public String[] getColumn(String columnName){ 
-            
-        // Argument to be returned 
-        String[] series; 
-        
-        // Try catch loop for reading CSV file
-        try {
-            // Read file 
-            CSVReader reader = new CSVReader(new FileReader(inputFile), ',');
-            csvtable = reader.readAll();
-            
-            // Extract headers 
-            String[] headers = csvtable.get(0); 
-            
-            // Initialize series 
-            series = new String[numRows-1]; //Subtract header row from count
-            
-            // Loop but only read column where header matches columnName
-            for (int row = 0; row < numRows-1; row++){
-                for (int col = 0; col < numCols; col++){
-                     if (headers[col].equals(columnName)){
-                         series[row] = csvtable.get(row+1)[col]; 
-                     }
-                }
-            }
-            reader.close();
-        }
+        try {reloadIfChanged();}
         catch (IOException e) {
-            series = new String[1]; 
             System.out.println("Caught IOException: " + e.getMessage()); 
+            return new String[1];
         }
-        return series; 
+        Integer col = m_headerIndex.get(columnName);
+        if (col == null){return new String[numRows-1];} // no such header
+        return m_columns[col].clone();
     }
      
     // Given a column, and assuming the item is unique, this method return the 
     // first row in which the item is found. Note that counting starts at 0. 
     public int findRowContainingItem(String columnName, String itemName){
-        String[] items = getColumn(columnName); 
-        int row = 1; // items does not include header (hence start at 1)
-        int count = row; 
-        for (String item: items){
-            if (item.equals(itemName)){row = count;}
-            count++;
-        }
+        try {reloadIfChanged();}
+        catch (IOException e) {System.out.println("Caught IOException: " + e.getMessage());}
+        Integer col = m_headerIndex.get(columnName);
+        if (col == null){return 1;}
+        Integer row = getRowIndex(col).get(itemName);
+        if (row == null){return 1;}
         return row; 
     }
     
     // This method returns the first column number of a column header
     public int getColumnNumber(String targetHeader){
-        int numCols = csvtable.get(0).length;
-        String[] headers = csvtable.get(0); 
-        int col = 0;
-        for (int i = 0; i < numCols; i++){
-            if (headers[i].equals(targetHeader)){col = i;}
-        }
+        Integer col = m_headerIndex.get(targetHeader);
+        if (col == null){return 0;}
         return col; 
     }
+
+    // This method returns true if the column header exists
+    public boolean hasColumn(String targetHeader){
+        return m_headerIndex.containsKey(targetHeader);
+    }
+    
+    // This method appends an empty column with the given header, unless it 
+    // already exists, and returns its column number
+    public int addColumn(String header) throws IOException {
+        if (!m_isBuffered){reloadIfChanged();}
+        Integer col = m_headerIndex.get(header);
+        if (col != null){return col;}
+        for (int row = 0; row < numRows; row++){
+            String[] line = Arrays.copyOf(csvtable.get(row), numCols+1);
+            line[numCols] = row == 0 ? header : "";
+            csvtable.set(row, line);
+        }
+        m_columns = Arrays.copyOf(m_columns, numCols+1);
+        m_columns[numCols] = new String[numRows-1];
+        Arrays.fill(m_columns[numCols], "");
+        numCols++;
+        m_isModified = true; 
+        indexHeaders();
+        if (!m_isBuffered){commit();}
+        return numCols-1;
+    }
     
     // This method returns the first column number of a column header
     public String getColumnName(int columnNumber){
@@ -139,4 +204,59 @@ public class CSVFile {
     // -------------------------------------------------------------------------
     // ---------------------- P R I V A T E   M E T H O D S --------------------
     // -------------------------------------------------------------------------
+
+    // This method parses the file once into row and column storage and indexes
+    // the headers. Row indexes are built lazily, one column at a time.
+    private void load() throws IOException {
+        try (CSVReader reader = new CSVReader(new FileReader(inputFile), ',')) {
+            csvtable = reader.readAll();
+        }
+        m_lastModified = inputFile.lastModified();
+        m_length = inputFile.length();
+        numRows = csvtable.size();
+        numCols = csvtable.get(0).length;
+        m_columns = new String[numCols][numRows-1];
+        for (int row = 1; row < numRows; row++){
+            String[] line = csvtable.get(row);
+            int n = Math.min(line.length, numCols);
+            for (int col = 0; col < n; col++){
+                m_columns[col][row-1] = line[col];
+            } 
+        }
+        m_rowIndex.clear();
+        m_isModified = false; 
+        indexHeaders();
+    }
+
+    // This method re-reads the file only if it was changed by someone else
+    // since it was last read or written (and there are no pending edits)
+    private void reloadIfChanged() throws IOException {
+        if (m_isModified){return;}
+        if (inputFile.lastModified() != m_lastModified || inputFile.length() != m_length){
+            load();
+        }
+    }
+
+    // This method maps each header to its first column number
+    private void indexHeaders(){
+        String[] headers = csvtable.get(0); 
+        m_headerIndex = new HashMap();
+        for (int col = 0; col < headers.length; col++){
+            if (!m_headerIndex.containsKey(headers[col])){m_headerIndex.put(headers[col], col);}
+        }
+    }
+
+    // This method maps each item in a column to the first row it appears in
+    private HashMap<String,Integer> getRowIndex(int col){
+        HashMap<String,Integer> index = m_rowIndex.get(col);
+        if (index == null){
+            index = new HashMap();
+            for (int row = 0; row < numRows-1; row++){
+                String item = m_columns[col][row];
+                if (item != null && !index.containsKey(item)){index.put(item, row+1);} // +1 for header
+            } 
+            m_rowIndex.put(col, index);
+        }
+        return index;
+    }
 }
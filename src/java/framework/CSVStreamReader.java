@@ -0,0 +1,278 @@
+/*
+ * The purpose of this class is to read selected columns of a (potentially
+ * large) CSV file straight into primitive arrays. Unlike CSVFile, it does not
+ * keep the file in memory as a table of strings: the file is read in one pass
+ * and numbers are parsed directly from the bytes. Use it for read-only inputs
+ * such as IndependentVariables.csv, DOE tables, or control point files.
+ */
+
+package framework;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ *
+ * @author shb
+ */
+public class CSVStreamReader {
+
+    // --- Properties
+    private static final int SKIP = 0;
+    private static final int DOUBLE = 1;
+    private static final int INTEGER = 2;
+    private static final int STRING = 3;
+    private static final double[] POW10 = { 1e0,  1e1,  1e2,  1e3,  1e4,  1e5,
+                                            1e6,  1e7,  1e8,  1e9, 1e10, 1e11,
+                                           1e12, 1e13, 1e14, 1e15, 1e16, 1e17,
+                                           1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private final String m_filepath;
+    private final ArrayList<String> m_doubleColumnNames;
+    private final ArrayList<String> m_intColumnNames;
+    private final ArrayList<String> m_stringColumnNames;
+    private double[][] m_doubleColumns;
+    private int[][] m_intColumns;
+    private String[][] m_stringColumns;
+    private String[] m_headers;
+    private int m_numRows;
+    private byte[] m_bytes; // file content (only while reading)
+
+    // --- Constructor
+    public CSVStreamReader(String filepath){
+        m_filepath = filepath;
+        m_doubleColumnNames = new ArrayList();
+        m_intColumnNames = new ArrayList();
+        m_stringColumnNames = new ArrayList();
+        m_headers = new String[0];
+    }
+
+    // -------------------------------------------------------------------------
+    // ---------------------- P U B L I C   M E T H O D S ----------------------
+    // -------------------------------------------------------------------------
+
+    // These methods select which columns to extract, and as what type. They
+    // must be called before read(). Columns not selected are skipped.
+    public void addDoubleColumn(String columnName){m_doubleColumnNames.add(columnName);}
+    public void addIntColumn(String columnName){m_intColumnNames.add(columnName);}
+    public void addStringColumn(String columnName){m_stringColumnNames.add(columnName);}
+
+    // This method reads the file in a single pass and fills the selected
+    // columns. The first line is assumed to be the header. Cells that are
+    // missing (short rows or unknown headers) are left as NaN, 0, or null.
+    public void read() throws IOException {
+
+        // Read the whole file into one buffer (no per-line objects)
+        try (FileChannel channel = FileChannel.open(Paths.get(m_filepath), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE){throw new IOException("File too large: " + m_filepath);}
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0){}
+            m_bytes = buffer.array();
+        }
+
+        try {
+            int length = m_bytes.length;
+            int position = 0;
+
+            // Header: map each column to a type and to a slot in its array
+            ArrayList<String> headers = new ArrayList();
+            while (position < length && m_bytes[position] != '\n'){
+                int end = findFieldEnd(position, length);
+                headers.add(unquote(position, end));
+                position = end < length && m_bytes[end] == ',' ? end + 1 : end;
+            }
+            position++; // skip '\n'
+            m_headers = headers.toArray(new String[headers.size()]);
+            int numCols = m_headers.length;
+            int[] type = new int[numCols];
+            int[] slot = new int[numCols];
+            mapColumns(m_doubleColumnNames, DOUBLE, type, slot);
+            mapColumns(m_intColumnNames, INTEGER, type, slot);
+            mapColumns(m_stringColumnNames, STRING, type, slot);
+
+            // Rows: parse each selected cell directly from the bytes
+            int capacity = 64;
+            m_numRows = 0;
+            m_doubleColumns = new double[m_doubleColumnNames.size()][capacity];
+            m_intColumns = new int[m_intColumnNames.size()][capacity];
+            m_stringColumns = new String[m_stringColumnNames.size()][capacity];
+            while (position < length){
+                if (m_bytes[position] == '\n' || m_bytes[position] == '\r'){position++; continue;} // blank line
+                if (m_numRows == capacity){
+                    capacity *= 2;
+                    grow(capacity);
+                }
+                for (double[] column: m_doubleColumns){column[m_numRows] = Double.NaN;}
+                int col = 0;
+                while (position < length && m_bytes[position] != '\n'){
+                    int end = findFieldEnd(position, length);
+                    if (col < numCols){
+                        switch (type[col]){
+                            case DOUBLE:
+                                m_doubleColumns[slot[col]][m_numRows] = parseDouble(position, end);
+                                break;
+                            case INTEGER:
+                                m_intColumns[slot[col]][m_numRows] = parseInt(position, end);
+                                break;
+                            case STRING:
+                                m_stringColumns[slot[col]][m_numRows] = unquote(position, end);
+                                break;
+                        }
+                    }
+                    col++;
+                    position = end < length && m_bytes[end] == ',' ? end + 1 : end;
+                }
+                position++; // skip '\n'
+                m_numRows++;
+            }
+            grow(m_numRows);
+        }
+        finally {m_bytes = null;}
+    }
+
+    // This method returns the number of rows read (excluding the header)
+    public int getNumberRows(){return m_numRows;}
+
+    // This method returns the headers found in the file
+    public String[] getHeaders(){return m_headers;}
+
+    // These methods return a selected column (null if it was not selected)
+    public double[] getDoubleColumn(String columnName){
+        int i = m_doubleColumnNames.indexOf(columnName);
+        return i < 0 ? null : m_doubleColumns[i];
+    }
+    public int[] getIntColumn(String columnName){
+        int i = m_intColumnNames.indexOf(columnName);
+        return i < 0 ? null : m_intColumns[i];
+    }
+    public String[] getStringColumn(String columnName){
+        int i = m_stringColumnNames.indexOf(columnName);
+        return i < 0 ? null : m_stringColumns[i];
+    }
+
+    // -------------------------------------------------------------------------
+    // ---------------------- P R I V A T E   M E T H O D S --------------------
+    // -------------------------------------------------------------------------
+
+    // This method assigns a type and a slot to each selected header
+    private void mapColumns(ArrayList<String> columnNames, int columnType, int[] type, int[] slot){
+        for (int i = 0; i < columnNames.size(); i++){
+            for (int col = 0; col < m_headers.length; col++){
+                if (m_headers[col].equals(columnNames.get(i)) && type[col] == SKIP){
+                    type[col] = columnType;
+                    slot[col] = i;
+                    break;
+                }
+            }
+        }
+    }
+
+    // This method resizes all column arrays to the specified length
+    private void grow(int capacity){
+        for (int i = 0; i < m_doubleColumns.length; i++){m_doubleColumns[i] = Arrays.copyOf(m_doubleColumns[i], capacity);}
+        for (int i = 0; i < m_intColumns.length; i++){m_intColumns[i] = Arrays.copyOf(m_intColumns[i], capacity);}
+        for (int i = 0; i < m_stringColumns.length; i++){m_stringColumns[i] = Arrays.copyOf(m_stringColumns[i], capacity);}
+    }
+
+    // This method returns the position of the ',' or end of line that closes
+    // the field starting at position (commas inside quotes are skipped)
+    private int findFieldEnd(int position, int length){
+        boolean isQuoted = false;
+        for (int i = position; i < length; i++){
+            byte c = m_bytes[i];
+            if (c == '"'){isQuoted = !isQuoted;}
+            else if (!isQuoted && (c == ',' || c == '\n')){return i;}
+        }
+        return length;
+    }
+
+    // This method returns the field as a string, without quotes or whitespace
+    private String unquote(int start, int end){
+        while (start < end && m_bytes[start] <= ' '){start++;}
+        while (end > start && m_bytes[end-1] <= ' '){end--;} // includes '\r'
+        if (end - start >= 2 && m_bytes[start] == '"' && m_bytes[end-1] == '"'){
+            return new String(m_bytes, start+1, end-start-2, StandardCharsets.UTF_8).replace("\"\"", "\"");
+        }
+        return new String(m_bytes, start, end-start, StandardCharsets.UTF_8);
+    }
+
+    // This method parses an integer without creating a string
+    private int parseInt(int start, int end){
+        while (start < end && m_bytes[start] <= ' '){start++;}
+        while (end > start && m_bytes[end-1] <= ' '){end--;}
+        if (start == end){return 0;} // empty cell
+        int i = start;
+        boolean isNegative = m_bytes[i] == '-';
+        if (m_bytes[i] == '-' || m_bytes[i] == '+'){i++;}
+        if (i == end || end - i > 9){return Integer.parseInt(unquote(start, end));} // error or overflow check
+        int value = 0;
+        for (; i < end; i++){
+            int digit = m_bytes[i] - '0';
+            if (digit < 0 || digit > 9){return Integer.parseInt(unquote(start, end));} // throws
+            value = 10*value + digit;
+        }
+        return isNegative ? -value : value;
+    }
+
+    // This method parses a double without creating a string. Numbers with at
+    // most 15 significant digits and a small exponent are exact in double
+    // arithmetic, which covers what Python and Star-CCM+ write. Anything else
+    // (more digits, NaN, Infinity, malformed) falls back to Double.parseDouble,
+    // so the result is always the same as Double.parseDouble would give.
+    private double parseDouble(int start, int end){
+        while (start < end && m_bytes[start] <= ' '){start++;}
+        while (end > start && m_bytes[end-1] <= ' '){end--;}
+        if (start == end){return Double.NaN;} // empty cell
+        int i = start;
+        boolean isNegative = m_bytes[i] == '-';
+        if (m_bytes[i] == '-' || m_bytes[i] == '+'){i++;}
+        long mantissa = 0;
+        int numberDigits = 0; // significant digits
+        int exponent = 0;
+        boolean hasDigit = false;
+        boolean hasPoint = false;
+        for (; i < end; i++){
+            byte c = m_bytes[i];
+            if (c >= '0' && c <= '9'){
+                hasDigit = true;
+                if (hasPoint){exponent--;}
+                if (mantissa == 0 && c == '0'){continue;} // leading zero
+                if (++numberDigits > 15){return slowParseDouble(start, end);}
+                mantissa = 10*mantissa + (c - '0');
+            }
+            else if (c == '.' && !hasPoint){hasPoint = true;}
+            else {break;}
+        }
+        if (!hasDigit){return slowParseDouble(start, end);}
+        if (i < end){
+            if (m_bytes[i] != 'e' && m_bytes[i] != 'E'){return slowParseDouble(start, end);}
+            i++;
+            boolean isNegativeExponent = i < end && m_bytes[i] == '-';
+            if (i < end && (m_bytes[i] == '-' || m_bytes[i] == '+')){i++;}
+            if (i == end || end - i > 3){return slowParseDouble(start, end);}
+            int e = 0;
+            for (; i < end; i++){
+                int digit = m_bytes[i] - '0';
+                if (digit < 0 || digit > 9){return slowParseDouble(start, end);}
+                e = 10*e + digit;
+            }
+            exponent += isNegativeExponent ? -e : e;
+        }
+        double value;
+        if (mantissa == 0){value = 0.0;}
+        else if (exponent >= 0 && exponent < POW10.length){value = mantissa * POW10[exponent];}
+        else if (exponent < 0 && -exponent < POW10.length){value = mantissa / POW10[-exponent];}
+        else {return slowParseDouble(start, end);}
+        return isNegative ? -value : value;
+    }
+    private double slowParseDouble(int start, int end){
+        return Double.parseDouble(unquote(start, end));
+    }
+}
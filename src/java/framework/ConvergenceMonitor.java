@@ -0,0 +1,208 @@
+/*
+ * The purpose of this class is to decide when a solver run has converged,
+ * based on values sampled between iteration chunks. The run is stopped when
+ * any of the following criteria is met (a criterion is off if not set):
+ *
+ *  1) Residual: every residual has dropped by the specified number of orders
+ *     of magnitude, relative to its largest value in this run
+ *  2) Asymptotic: every report (e.g. CD, CL, CM) has stayed within a relative
+ *     tolerance over a sliding window of the last samples
+ *  3) MaxSteps: the maximum number of steps has been reached
+ *
+ * The run is also stopped ("Diverged") if any residual grows by more than the
+ * specified ratio relative to its first value in this run (off if not set).
+ *
+ * This class knows nothing about Star-CCM+: the solver feeds it values by
+ * calling record(), then asks isConverged() and getStopReason().
+ */
+
+package framework;
+
+import java.util.ArrayList;
+
+/**
+ *
+ * @author shb
+ */
+public class ConvergenceMonitor {
+
+    // --- Properties
+    private ArrayList<String> m_residualNames;
+    private ArrayList<String> m_reportNames;
+    private double m_residualDrop;          // orders of magnitude (0 = off)
+    private int m_asymptoticWindow;         // number of samples (0 = off)
+    private double m_asymptoticTolerance;   // relative
+    private int m_maxSteps;                 // (0 = no cap)
+    private double m_divergenceRatio;       // (0 = off)
+    private int m_numberSteps;              // steps run so far
+    private double[] m_firstResiduals;      // residuals at first record()
+    private double[] m_maxResiduals;        // largest residuals seen so far
+    private double[] m_residuals;           // latest residuals
+    private ArrayList<double[]> m_reportHistory; // one sample per record()
+    private String m_stopReason;
+
+    // --- Constructor
+    public ConvergenceMonitor(){
+        m_residualNames = new ArrayList();
+        m_reportNames = new ArrayList();
+        m_residualDrop = 0.0;
+        m_asymptoticWindow = 0;
+        m_asymptoticTolerance = 1e-4;
+        m_maxSteps = 0;
+        m_divergenceRatio = 0.0;
+        reset();
+    }
+
+    // -------------------------------------------------------------------------
+    // ---------------------- P U B L I C   M E T H O D S ----------------------
+    // -------------------------------------------------------------------------
+
+    // This method clears the history (call before each run)
+    public final void reset(){
+        m_numberSteps = 0;
+        m_firstResiduals = null;
+        m_maxResiduals = null;
+        m_residuals = null;
+        m_reportHistory = new ArrayList();
+        m_stopReason = "";
+    }
+
+    // This method records the values sampled after a chunk of steps
+    public void record(int numberSteps, double[] residuals, double[] reports){
+        m_numberSteps += numberSteps;
+        m_residuals = residuals.clone();
+        if (m_firstResiduals == null){m_firstResiduals = residuals.clone();}
+        if (m_maxResiduals == null){m_maxResiduals = residuals.clone();}
+        for (int i = 0; i < residuals.length; i++){
+            m_maxResiduals[i] = Math.max(m_maxResiduals[i], residuals[i]);
+        }
+        m_reportHistory.add(reports.clone());
+        m_stopReason = "";
+        if (isDiverged()){m_stopReason = "Diverged";}
+        else if (isResidualConverged()){m_stopReason = "Residual";}
+        else if (isAsymptoticallyConverged()){m_stopReason = "Asymptotic";}
+        else if (m_maxSteps > 0 && m_numberSteps >= m_maxSteps){m_stopReason = "MaxSteps";}
+    }
+
+    // This method returns true if the run should stop
+    public boolean isConverged(){return !m_stopReason.isEmpty();}
+
+    // This method returns why the run stopped ("Residual", "Asymptotic",
+    // "MaxSteps", "Diverged", or "" if it has not)
+    public String getStopReason(){return m_stopReason;}
+
+    // This method returns the number of steps recorded since reset()
+    public int getNumberSteps(){return m_numberSteps;}
+
+    // This method returns the residual drop (orders of magnitude) achieved so
+    // far by the slowest residual
+    public double getResidualDrop(){
+        if (m_residuals == null || m_residuals.length == 0){return 0.0;}
+        double drop = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < m_residuals.length; i++){
+            drop = Math.min(drop, Math.log10(m_maxResiduals[i]/m_residuals[i]));
+        }
+        return drop;
+    }
+
+    // This method returns the relative spread of the reports over the last 
+    // samples (up to the asymptotic window), i.e. the largest (max-min)/|mean|
+    // over all reports. This is how stable the reports are, e.g. how accurate
+    // sensitivities are (NaN if unknown: no reports, or fewer than 2 samples).
+    public double getAsymptoticSpread(){
+        int n = m_reportHistory.size();
+        int window = Math.min(Math.max(m_asymptoticWindow, 2), n);
+        if (window < 2 || m_reportHistory.get(n-1).length == 0){return Double.NaN;}
+        double spread = 0.0;
+        for (int j = 0; j < m_reportHistory.get(n-1).length; j++){
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            double sum = 0.0;
+            for (int i = n - window; i < n; i++){
+                double value = m_reportHistory.get(i)[j];
+                if (Double.isNaN(value)){return Double.NaN;}
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+                sum += value;
+            }
+            double scale = Math.max(Math.abs(sum/window), 1e-12);
+            spread = Math.max(spread, (max - min)/scale);
+        }
+        return spread;
+    }
+
+    // These methods set (get) the names of the residual monitors and reports
+    // to sample (the solver reads them in this order)
+    public void setResidualNames(ArrayList<String> names){m_residualNames = names;}
+    public ArrayList<String> getResidualNames(){return m_residualNames;}
+    public void setReportNames(ArrayList<String> names){m_reportNames = names;}
+    public ArrayList<String> getReportNames(){return m_reportNames;}
+
+    // This method sets (gets) the residual drop criterion (orders of magnitude)
+    public void setRequiredResidualDrop(double d){m_residualDrop = d;}
+    public double getRequiredResidualDrop(){return m_residualDrop;}
+
+    // This method sets (gets) the asymptotic criterion: reports must stay
+    // within a relative tolerance over the last n samples
+    public void setAsymptoticWindow(int n){m_asymptoticWindow = n;}
+    public int getAsymptoticWindow(){return m_asymptoticWindow;}
+    public void setAsymptoticTolerance(double d){m_asymptoticTolerance = d;}
+    public double getAsymptoticTolerance(){return m_asymptoticTolerance;}
+
+    // This method sets (gets) the maximum number of steps per run
+    public void setMaxSteps(int n){m_maxSteps = n;}
+    public int getMaxSteps(){return m_maxSteps;}
+
+    // This method sets (gets) the divergence criterion: ratio of any residual 
+    // to its first value in this run
+    public void setDivergenceRatio(double d){m_divergenceRatio = d;}
+    public double getDivergenceRatio(){return m_divergenceRatio;}
+
+    // -------------------------------------------------------------------------
+    // ---------------------- P R I V A T E   M E T H O D S --------------------
+    // -------------------------------------------------------------------------
+
+    // This method returns true if any residual grew too much (residuals that
+    // are not available, i.e. NaN, are ignored)
+    private boolean isDiverged(){
+        if (m_divergenceRatio <= 0.0 || m_residuals == null){return false;}
+        for (int i = 0; i < m_residuals.length; i++){
+            if (Double.isInfinite(m_residuals[i])){return true;}
+            if (m_residuals[i] > m_divergenceRatio*m_firstResiduals[i]){return true;}
+        }
+        return false;
+    }
+
+    // This method returns true if all residuals dropped enough
+    private boolean isResidualConverged(){
+        if (m_residualDrop <= 0.0 || m_residuals == null || m_residuals.length == 0){return false;}
+        for (double residual: m_residuals){
+            if (Double.isNaN(residual)){return false;}
+        }
+        return getResidualDrop() >= m_residualDrop;
+    }
+
+    // This method returns true if all reports stayed within tolerance over
+    // the sliding window
+    private boolean isAsymptoticallyConverged(){
+        int n = m_reportHistory.size();
+        if (m_asymptoticWindow <= 1 || n < m_asymptoticWindow){return false;}
+        int numberReports = m_reportHistory.get(n-1).length;
+        if (numberReports == 0){return false;}
+        for (int j = 0; j < numberReports; j++){
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            double sum = 0.0;
+            for (int i = n - m_asymptoticWindow; i < n; i++){
+                double value = m_reportHistory.get(i)[j];
+                if (Double.isNaN(value)){return false;}
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+                sum += value;
+            }
+            double scale = Math.max(Math.abs(sum/m_asymptoticWindow), 1e-12);
+            if (max - min > m_asymptoticTolerance*scale){return false;}
+        }
+        return true;
+    }
+}
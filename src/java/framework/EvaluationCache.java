@@ -0,0 +1,228 @@
+/*
+ * The purpose of this class is to remember function values and gradients
+ * already computed for a given design, so that the optimizer can ask for the
+ * same design again (e.g. gradients after values, or line search revisiting a
+ * point) without running Star-CCM+.
+ *
+ * Designs are identified by quantizing the design vector to a tolerance and
+ * hashing the result. The cache is stored in the session directory as an
+ * append-only text file, one record per line:
+ *
+ *      X,<key>,<q1>,<q2>,...           <---- quantized design vector
+ *      F,<key>,<name>,<value>          <---- function value
+ *      G,<key>,<name>,<g1>,<g2>,...    <---- function gradient
+ *      A,<key>,<name>,<accuracy>       <---- relative accuracy of gradient
+ *
+ * Later records override earlier ones. The cache knows nothing about the setup
+ * of the simulation (mesh, flight conditions, etc.) so it must be deleted
+ * whenever the setup changes.
+ */
+
+package framework;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ *
+ * @author shb
+ */
+public class EvaluationCache {
+
+    // --- Properties
+    private final String m_filepath;
+    private final double m_tolerance;
+    private final HashMap<Long,Entry> m_entries;
+    private final StringBuilder m_pending; // records not yet written to file
+
+    // One cached design
+    private static class Entry {
+        long[] q;
+        HashMap<String,Double> values = new HashMap();
+        HashMap<String,double[]> gradients = new HashMap();
+        HashMap<String,Double> accuracies = new HashMap();
+    }
+
+    // --- Constructor
+    public EvaluationCache(String filepath, double tolerance){
+        m_filepath = filepath;
+        m_tolerance = tolerance;
+        m_entries = new HashMap();
+        m_pending = new StringBuilder();
+        try {load();}
+        catch (IOException e) {
+            System.out.println("Caught IOException: " + e.getMessage());
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // ---------------------- P U B L I C   M E T H O D S ----------------------
+    // -------------------------------------------------------------------------
+
+    // This method returns the cached value of a function (null if not cached)
+    public Double getValue(double[] x, String functionName){
+        Entry entry = find(x);
+        if (entry == null){return null;}
+        return entry.values.get(functionName);
+    }
+
+    // This method returns the cached gradient of a function (null if not cached)
+    public double[] getGradient(double[] x, String functionName){
+        Entry entry = find(x);
+        if (entry == null){return null;}
+        double[] gradient = entry.gradients.get(functionName);
+        if (gradient == null || gradient.length != x.length){return null;}
+        return gradient.clone();
+    }
+
+    // These methods return true if the value (gradient) of a function is cached
+    public boolean hasValue(double[] x, String functionName){return getValue(x, functionName) != null;}
+    public boolean hasGradient(double[] x, String functionName){return getGradient(x, functionName) != null;}
+
+    // This method stores the value of a function. Nothing is written to file
+    // until commit() is called.
+    public void putValue(double[] x, String functionName, double value){
+        Entry entry = findOrCreate(x);
+        entry.values.put(functionName, value);
+        m_pending.append("F,").append(toKey(entry.q)).append(',').append(functionName)
+                 .append(',').append(value).append('\n');
+    }
+
+    // This method stores the gradient of a function (this also upgrades a
+    // design that was cached with values only).
+    public void putGradient(double[] x, String functionName, double[] gradient){
+        Entry entry = findOrCreate(x);
+        entry.gradients.put(functionName, gradient.clone());
+        entry.accuracies.remove(functionName);
+        m_pending.append("G,").append(toKey(entry.q)).append(',').append(functionName);
+        for (double g: gradient){m_pending.append(',').append(g);}
+        m_pending.append('\n');
+    }
+
+    // This method returns the accuracy the cached gradient of a function was 
+    // computed to (NaN if unknown)
+    public double getGradientAccuracy(double[] x, String functionName){
+        Entry entry = find(x);
+        if (entry == null || !entry.accuracies.containsKey(functionName)){return Double.NaN;}
+        return entry.accuracies.get(functionName);
+    }
+
+    // This method stores the accuracy a gradient was computed to (call after
+    // putGradient, since storing a new gradient forgets the accuracy)
+    public void putGradientAccuracy(double[] x, String functionName, double accuracy){
+        Entry entry = findOrCreate(x);
+        entry.accuracies.put(functionName, accuracy);
+        m_pending.append("A,").append(toKey(entry.q)).append(',').append(functionName)
+                 .append(',').append(accuracy).append('\n');
+    }
+
+    // This method appends all new records to file in one go
+    public void commit() throws IOException {
+        if (m_pending.length() == 0){return;}
+        try (FileWriter writer = new FileWriter(m_filepath, true)) {
+            writer.write(m_pending.toString());
+            writer.flush();
+        }
+        m_pending.setLength(0);
+    }
+
+    // This method returns the tolerance used to quantize design vectors
+    public double getTolerance(){return m_tolerance;}
+
+    // This method returns the quantized design vector (designs that round to
+    // the same vector are considered the same design)
+    public long[] quantize(double[] x){return quantize(x, m_tolerance);}
+    public static long[] quantize(double[] x, double tolerance){
+        long[] q = new long[x.length];
+        for (int i = 0; i < x.length; i++){q[i] = Math.round(x[i]/tolerance);}
+        return q;
+    }
+
+    // This method returns a 64-bit hash of a quantized design vector
+    public static long hash(long[] q){
+        long h = 0xcbf29ce484222325L; // FNV-1a offset basis
+        for (long value: q){
+            for (int i = 0; i < 8; i++){
+                h ^= (value >>> (8*i)) & 0xff;
+                h *= 0x100000001b3L; // FNV-1a prime
+            }
+        }
+        return h;
+    }
+
+    // -------------------------------------------------------------------------
+    // ---------------------- P R I V A T E   M E T H O D S --------------------
+    // -------------------------------------------------------------------------
+
+    // This method returns the entry for a design (null if not cached). The
+    // quantized vector is compared too, in case two designs share a hash.
+    private Entry find(double[] x){
+        long[] q = quantize(x);
+        Entry entry = m_entries.get(hash(q));
+        if (entry == null || !Arrays.equals(entry.q, q)){return null;}
+        return entry;
+    }
+
+    // This method returns the entry for a design, creating it if needed
+    private Entry findOrCreate(double[] x){
+        Entry entry = find(x);
+        if (entry == null){
+            entry = new Entry();
+            entry.q = quantize(x);
+            m_entries.put(hash(entry.q), entry);
+            m_pending.append("X,").append(toKey(entry.q));
+            for (long value: entry.q){m_pending.append(',').append(value);}
+            m_pending.append('\n');
+        }
+        return entry;
+    }
+
+    // This method returns the key written to file for a design
+    private String toKey(long[] q){return Long.toHexString(hash(q));}
+
+    // This method reads all records from file. Lines that cannot be parsed
+    // (e.g. a partial line left by a crash) are skipped.
+    private void load() throws IOException {
+        File file = new File(m_filepath);
+        if (!file.exists()){return;}
+        HashMap<String,Entry> entries = new HashMap();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null){
+                String[] items = line.split(",");
+                try {
+                    switch (items[0]) {
+                        case "X":
+                            Entry entry = new Entry();
+                            entry.q = new long[items.length-2];
+                            for (int i = 0; i < entry.q.length; i++){entry.q[i] = Long.parseLong(items[i+2]);}
+                            entries.put(items[1], entry);
+                            m_entries.put(hash(entry.q), entry);
+                            break;
+                        case "F":
+                            if (items.length != 4 || !entries.containsKey(items[1])){break;}
+                            entries.get(items[1]).values.put(items[2], Double.parseDouble(items[3]));
+                            break;
+                        case "G":
+                            if (!entries.containsKey(items[1])){break;}
+                            double[] gradient = new double[items.length-3];
+                            for (int i = 0; i < gradient.length; i++){gradient[i] = Double.parseDouble(items[i+3]);}
+                            entries.get(items[1]).gradients.put(items[2], gradient);
+                            entries.get(items[1]).accuracies.remove(items[2]);
+                            break;
+                        case "A":
+                            if (items.length != 4 || !entries.containsKey(items[1])){break;}
+                            entries.get(items[1]).accuracies.put(items[2], Double.parseDouble(items[3]));
+                            break;
+                    }
+                }
+                catch (NumberFormatException | ArrayIndexOutOfBoundsException e){} // skip line
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * The purpose of this class is to evaluate one design for an external
+ * optimizer, running only what is needed, and write the requested functions
+ * (and gradients) to DependentVariables.csv. It is shared by the macros that
+ * serve optimizers (RunOptimizationMacro: one evaluation per macro run,
+ * EvaluationServer: many per run), so that they evaluate designs the same way.
+ *
+ * For the current design (design variables already set), in this order:
+ *
+ * 1) Answered from the evaluation cache (if set): nothing is run
+ * 2) Gradients asked for the design the primal was last solved for (e.g. the
+ *    last line search point): the primal is continued if it had not
+ *    converged, then the adjoint is run
+ * 3) Any other design: the mesh is morphed, the solution is initialized from
+ *    the nearest snapshot (if a library is set) or from the last solution
+ *    written (if restoring artifacts), the primal is run, the solution is
+ *    stored as a snapshot (if converged), then the adjoint is run
+ *
+ * No adjoint is run for a failed primal. The adjoint is solved only for the
+ * gradients requested. In parallel mode (if set), the simulation is saved and
+ * each cost function is solved in its own process (see ParallelAdjoint); those
+ * that fail are then solved here, as usual.
+ */
+
+package framework;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import star.common.Simulation;
+
+/**
+ *
+ * @author shb
+ */
+public class Evaluator {
+
+    // --- Properties
+    private final Simulation m_simulation;
+    private final CFDModel m_cfd;
+    private final Problem m_problem;
+    private final String m_independentVariableFilepath; // read by parallel adjoint processes
+    private final String m_dependentVariableFilepath;
+    private double m_designTolerance;
+    private int m_numberPrimalSteps;
+    private int m_number1stOrderGMRESAdjointSteps;
+    private int m_number2ndOrderGMRESAdjointSteps;
+    private boolean m_isRestoreArtifacts;
+    private ParallelAdjoint m_parallelAdjoint; // null = solve all cost functions here
+    private boolean m_isRun; // last design was run (not answered from cache)
+
+    // --- Constructor
+    public Evaluator(Simulation sim, CFDModel cfd, Problem problem, String independentVariableFilepath, String dependentVariableFilepath){
+        m_simulation = sim;
+        m_cfd = cfd;
+        m_problem = problem;
+        m_independentVariableFilepath = independentVariableFilepath;
+        m_dependentVariableFilepath = dependentVariableFilepath;
+        m_designTolerance = 1e-12;
+        m_numberPrimalSteps = 1000;
+        m_number1stOrderGMRESAdjointSteps = 25;
+        m_number2ndOrderGMRESAdjointSteps = 15;
+        m_isRestoreArtifacts = false;
+        m_parallelAdjoint = null;
+        m_isRun = false;
+    }
+
+    // -------------------------------------------------------------------------
+    // ---------------------- P U B L I C   M E T H O D S ----------------------
+    // -------------------------------------------------------------------------
+
+    // This method evaluates the current design and writes the results to file
+    public void evaluate(boolean isRunAdjoint) throws IOException {
+        m_cfd.solver.clearStopReasons(); // not those of the previous design
+        double designKey = m_problem.getDesignKey(m_designTolerance);
+        m_isRun = !m_problem.isCached(m_dependentVariableFilepath,isRunAdjoint);
+        if (!m_isRun) {
+            // answered from cache, nothing to run
+        }
+        else if (isRunAdjoint && m_cfd.solver.isPrimalDesign(designKey)) {
+            // primal already solved for this design: skip morphing, go straight to adjoint
+            if (!m_cfd.solver.isPrimalConverged()) {
+                m_cfd.solver.runPrimal(m_numberPrimalSteps); // continue from current solution
+                m_cfd.solver.setPrimalDesign(designKey);
+            }
+            if (!m_cfd.solver.isPrimalFailed()) {
+                runAdjoint();
+            }
+        }
+        else {
+            m_problem.applyIndependentVariables(); // morph
+            if (!m_cfd.initializeFromSnapshot(m_cfd.getSnapshotKey(m_problem.getScaledDesignVariables())) // if library set
+                    && m_isRestoreArtifacts) {
+                m_cfd.restoreArtifacts(); // simulation not saved: start from last solution written
+            }
+            m_cfd.solver.restartPrimal(m_numberPrimalSteps); // clear histories and run
+            m_cfd.solver.setPrimalDesign(designKey);
+            m_cfd.saveSnapshot(m_cfd.getSnapshotKey(m_problem.getScaledDesignVariables())); // if converged
+            if (isRunAdjoint && !m_cfd.solver.isPrimalFailed()) { // no gradients of a failed design
+                runAdjoint();
+            }
+        }
+        m_problem.writeDependentVariables(m_dependentVariableFilepath,isRunAdjoint);
+    }
+
+    // This method returns true if the last design evaluated was run, i.e. not
+    // answered from the cache (e.g. to decide whether to save the simulation)
+    public boolean isRun(){return m_isRun;}
+
+    // This method sets (gets) how close two designs must be to be the same
+    // design (see Problem.getDesignKey)
+    public void setDesignTolerance(double d){m_designTolerance = d;}
+    public double getDesignTolerance(){return m_designTolerance;}
+
+    // This method sets (gets) the maximum number of primal steps per design
+    public void setNumberPrimalSteps(int n){m_numberPrimalSteps = n;}
+    public int getNumberPrimalSteps(){return m_numberPrimalSteps;}
+
+    // This method sets the maximum number of 1st-order (warm-start) and
+    // 2nd-order adjoint steps (see Solver.runAdjointWithWarmStart)
+    public void setNumberAdjointSteps(int number1stOrderGMRESSteps, int number2ndOrderGMRESSteps){
+        m_number1stOrderGMRESAdjointSteps = number1stOrderGMRESSteps;
+        m_number2ndOrderGMRESAdjointSteps = number2ndOrderGMRESSteps;
+    }
+
+    // This method sets (gets) whether new designs without a snapshot start
+    // from the last solution written by the save policy (when only artifacts
+    // are saved, the simulation file holds an older solution)
+    public void setRestoreArtifacts(boolean b){m_isRestoreArtifacts = b;}
+    public boolean isRestoreArtifacts(){return m_isRestoreArtifacts;}
+
+    // This method sets (gets) the parallel adjoint used when gradients of more
+    // than one cost function are requested (null = solve them all here)
+    public void setParallelAdjoint(ParallelAdjoint p){m_parallelAdjoint = p;}
+    public ParallelAdjoint getParallelAdjoint(){return m_parallelAdjoint;}
+
+    // -------------------------------------------------------------------------
+    // ---------------------- P R I V A T E   M E T H O D S --------------------
+    // -------------------------------------------------------------------------
+
+    // This method runs the adjoint for the gradients requested. In parallel
+    // mode, the simulation is saved and each cost function is solved in its
+    // own process; those that fail are then solved here, as usual. The adjoint
+    // convergence monitor (if set) tracks the alpha sensitivities of the cost
+    // functions solved, created beforehand.
+    private void runAdjoint(){
+        ArrayList<String> costFunctionNames = m_problem.getGradientFunctionNames(m_dependentVariableFilepath); // only gradients requested
+        if (m_parallelAdjoint != null && costFunctionNames.size() > 1) {
+            m_cfd.save(); // converged primal, copied by each process
+            HashMap<String,double[]> gradients = m_parallelAdjoint.run(m_simulation.getSessionPath(), costFunctionNames,
+                    m_problem.getDesignVariables(), m_designTolerance, "-Dinput=" + m_parallelAdjoint.getRelativePath(m_independentVariableFilepath)
+                    + " -Dgrad_tol=" + m_cfd.solver.getGradientTolerance());
+            for (String name: gradients.keySet()) {m_problem.putGradient(name, gradients.get(name), m_parallelAdjoint.getAccuracy(name));}
+            costFunctionNames = m_problem.getGradientFunctionNames(m_dependentVariableFilepath); // whatever is left
+        }
+        m_cfd.solver.setAdjointCostFunctionNames(costFunctionNames);
+        if (m_cfd.solver.getAdjointConvergenceMonitor() != null) {
+            ArrayList<String> reportNames = new ArrayList(); // sensitivities that exist whatever the design variables
+            for (String name: costFunctionNames) {reportNames.add(m_cfd.createAlphaDerivativeReport(name));}
+            m_cfd.solver.getAdjointConvergenceMonitor().setReportNames(reportNames);
+        }
+        m_cfd.solver.runAdjointWithWarmStart(m_number1stOrderGMRESAdjointSteps,m_number2ndOrderGMRESAdjointSteps);
+    }
+}
@@ -24,6 +24,8 @@ import star.trimmer.TrimmerAutoMesher;
 import star.twodmesher.DualAutoMesher2d;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  *
@@ -47,6 +49,7 @@ public class MeshAdaptation {
     private String m_adaptiveMeshCostFunctionReportName;
     private double m_adaptTargetError;
     private double m_adaptMaxSizeChange;
+    private SavePolicy m_savePolicy; // intermediate saves (null = every level)
     private String epsilon_k;
     private String H_k;
     private String eta_g;
@@ -67,6 +70,7 @@ public class MeshAdaptation {
         toolbox = new Toolbox(sim);
         mesher = new Mesher(sim); 
         solver = new Solver(sim); 
+        solver.setAdjointProducts(new ArrayList(Arrays.asList("ErrorEstimates"))); // mesh sensitivities not needed
         
         // - Names -
         m_meshOperationName = "Automated Mesh";
@@ -97,6 +101,12 @@ public class MeshAdaptation {
     
     public void setPrimalCFL(double d){solver.setPrimalCFL(d);}
     public void setAdjointCFL(double d){solver.setAdjointCFL(d);}
+    public void setAdjointConvergenceMonitor(ConvergenceMonitor c){solver.setAdjointConvergenceMonitor(c);}
+    public void setAdjointSwitchResidualDrop(double d){solver.setAdjointSwitchResidualDrop(d);}
+    public void setNumberAdjointStepsPerChunk(int n){solver.setNumberAdjointStepsPerChunk(n);}
+    public void setConvergenceMonitor(ConvergenceMonitor c){solver.setConvergenceMonitor(c);}
+    public void setPrimalSwitchResidualDrop(double d){solver.setPrimalSwitchResidualDrop(d);}
+    public void setGridSequencingLevels(int n){solver.setGridSequencingLevels(n);}
     public void setFluidRegionName(String s){m_fluidRegionName = s;}
     public void setMeshRefinementTableName(String s){m_meshRefinementTableName = s;}
     public void setAdaptiveMeshCostFunctionName(String s){m_adaptiveMeshCostFunctionName = s;}
@@ -104,6 +114,7 @@ public class MeshAdaptation {
     public void setMeshOperationNameName(String s){m_meshOperationName = s;}
     public void setAdaptTargetError(double d){m_adaptTargetError = d;}
     public void setAdaptMaxSizeChange(double d){m_adaptMaxSizeChange = d;}
+    public void setSavePolicy(SavePolicy s){m_savePolicy = s;}
     
     public double getPrimalCFL(){return solver.getPrimalCFL();}
     public double getAdjointCFL(){return solver.getAdjointCFL();}
@@ -114,19 +125,26 @@ public class MeshAdaptation {
     public String getMeshOperationNameName(){return m_meshOperationName;}
     public double getAdaptTargetError(){return m_adaptTargetError;}
     public double getAdaptMaxSizeChange(){return m_adaptMaxSizeChange;}
+    public SavePolicy getSavePolicy(){return m_savePolicy;}
     
-    // This method performs adaptive mesh refinement
+    // This method performs adaptive mesh refinement. The primal on each new 
+    // mesh is warm-started (grid sequencing, if set, then 1st-order). 
     public void runWithWarmStart(int numberAdaptionLevels,
                                  int numberPrimalSteps,
                                  int number1stOrderGMRESAdjointSteps,int number2ndOrderGMRESAdjointSteps){
+        runWithWarmStart(numberAdaptionLevels, 0, numberPrimalSteps, number1stOrderGMRESAdjointSteps, number2ndOrderGMRESAdjointSteps);
+    }
+    public void runWithWarmStart(int numberAdaptionLevels,
+                                 int number1stOrderPrimalSteps,int number2ndOrderPrimalSteps,
+                                 int number1stOrderGMRESAdjointSteps,int number2ndOrderGMRESAdjointSteps){
         clearAdaptiveMeshRefinementSetup();
         mesher.mesh();
         prepareForAdaptiveMeshRefinement();
-        solver.restartPrimal(numberPrimalSteps);
+        solver.runPrimalWithWarmStart(number1stOrderPrimalSteps, number2ndOrderPrimalSteps);
         solver.runAdjointWithWarmStart(number1stOrderGMRESAdjointSteps, number2ndOrderGMRESAdjointSteps);
 //        simulation.saveState(simulation.getSessionPath());
         String simulationName = simulation.getPresentationName();
-        simulation.saveState(simulation.getSessionDir() + File.separator + simulationName + "_Initial.sim");
+        solver.saveState(m_savePolicy, Double.NaN, simulation.getSessionDir() + File.separator + simulationName + "_Initial.sim");
         for (int count = 1; count <= numberAdaptionLevels; count++) {
             simulation.println(" ");
             simulation.println("***********************");
@@ -135,10 +153,10 @@ public class MeshAdaptation {
             simulation.println(" ");
             simulation.getTableManager().getTable(m_meshRefinementTableName).extract();
             mesher.mesh();
-            solver.restartPrimal(numberPrimalSteps);
+            solver.runPrimalWithWarmStart(number1stOrderPrimalSteps, number2ndOrderPrimalSteps);
             solver.runAdjointWithWarmStart(number1stOrderGMRESAdjointSteps, number2ndOrderGMRESAdjointSteps);
 //            simulation.saveState(simulation.getSessionPath());
-            simulation.saveState(simulation.getSessionDir() + File.separator + simulationName + "_Adapted.sim");
+            solver.saveState(m_savePolicy, Double.NaN, simulation.getSessionDir() + File.separator + simulationName + "_Adapted.sim");
         }
         clearAdaptiveMeshRefinementSetup();
     }
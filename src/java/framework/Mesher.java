@@ -50,6 +50,11 @@ public class Mesher {
     public void mesh(){
         AutoMeshOperation autoMeshOperation = ((AutoMeshOperation) m_simulation.get(MeshOperationManager.class).getObject(m_meshOperationName));
         autoMeshOperation.execute();
+        
+        // New mesh: previous morphing and solution no longer apply 
+        new Morpher(m_simulation).clearMorphed();
+        new Solver(m_simulation).clearPrimalDesign();
+        new Solver(m_simulation).clearAdjoint();
     }
  
     // This method sets (gets) the control volume part name  
@@ -6,6 +6,8 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import star.base.neo.NeoObjectVector;
 import star.common.Boundary;
 import star.common.FileTable;
@@ -38,11 +40,13 @@ public class Morpher{
     private ArrayList<String> m_controlPointFileNames;
     private ArrayList<String> m_adjointCostFunctionNames;
     private ArrayList<String> m_morpherFloatingBoundaryNames;
+    private HashMap<String,HashMap<String,Double>> m_appliedValues; // table -> ("row,col" -> value)
 
     // --- Constructor 
     public Morpher(Simulation sim) {
         m_simulation = sim;
         m_toolbox = new Toolbox(sim);
+        m_appliedValues = new HashMap();
         setDefaults();
     }
 
@@ -110,6 +114,42 @@ public class Morpher{
 //        }
 //    }
 
+    // This method returns a fingerprint of the control point values (a whole 
+    // number below 2^52, so that it is stored exactly as a double) 
+    public double getFingerprint(ArrayList<DesignVariable> designvars){
+        ArrayList<Long> items = new ArrayList();
+        for (DesignVariable controlPoint: designvars){
+            if (!controlPoint.getVarName().equals("alpha")){
+                items.add((long) controlPoint.getControlPointTableID().hashCode());
+                items.add((long) controlPoint.getControlPointTableRow());
+                items.add((long) controlPoint.getControlPointTableCol());
+                items.add(Double.doubleToLongBits(controlPoint.getCurrentValue()));
+            }
+        }
+        long[] q = new long[items.size()];
+        for (int i = 0; i < q.length; i++){q[i] = items.get(i);}
+        return (double) (EvaluationCache.hash(q) >>> 12);
+    }
+
+    // This method records (in the simulation, so that it is saved with it) the
+    // fingerprint of the control points the mesh is currently deformed to
+    public void setMorphed(double fingerprint){
+        m_toolbox.setGlobalScalarParameter("MorpherFingerprint", fingerprint);
+    }
+
+    // This method forgets which control points the mesh is deformed to (e.g. 
+    // because the mesh was regenerated)
+    public void clearMorphed(){
+        if (isMorphed(-1.0)){return;} // nothing to clear
+        m_toolbox.setGlobalScalarParameter("MorpherFingerprint", -1.0);
+    }
+
+    // This method returns true if the mesh is already deformed to these 
+    // control points, in which case there is no need to update or morph
+    public boolean isMorphed(double fingerprint){
+        return m_toolbox.getGlobalScalarParameter("MorpherFingerprint", -1.0) == fingerprint;
+    }
+
     // This method updates the control points and deforms the mesh 
     public void morph(){
 
@@ -133,61 +173,77 @@ public class Morpher{
     // external CSV file. Perhaps something to consider in future updates. 
     public void update(ArrayList<DesignVariable> designvars){
 
+        // Group control points by table, so that each table is exported, 
+        // written, and re-imported at most once. Not all design variables are
+        // control points. They could also be boundary parameters, such as 
+        // angle of attack (alpha). We'll use an "if statement" to filter by 
+        // key word: 
+        LinkedHashMap<String,ArrayList<DesignVariable>> controlPointTables = new LinkedHashMap();
+        for (DesignVariable controlPoint: designvars){
+            if (!controlPoint.getVarName().equals("alpha")){
+                String controlPointTableName = controlPoint.getControlPointTableID();
+                if (!controlPointTables.containsKey(controlPointTableName)){
+                    controlPointTables.put(controlPointTableName, new ArrayList());
+                }
+                controlPointTables.get(controlPointTableName).add(controlPoint);
+            }
+        }
+
         // Get table manager  
         TableManager tableManager = m_simulation.getTableManager();
 
-        // Loop over each control point in list 
-        for (DesignVariable controlPoint: designvars)
+        // Loop over each control point table 
+        for (String controlPointTableName: controlPointTables.keySet())
         {
-
-            // Extract the properties contained in each DesignVariable object
-            int controlPointID              = controlPoint.getID();
-            String controlPointTableName    = controlPoint.getControlPointTableID();
-            double currentValue             = controlPoint.getCurrentValue();
-            double initialValue             = controlPoint.getInitialValue();
-            int row                         = controlPoint.getControlPointTableRow();
-            int col                         = controlPoint.getControlPointTableCol();
-
-            // Not all design variables are control points. They could also be 
-            // boundary parameters, such as angle of attack (alpha). We'll use 
-            // an "if statement" to filter by key word: 
-            if (!controlPoint.getVarName().equals("alpha")){
-                // Get the current value in the table
-                FileTable table = ((FileTable) tableManager.getTable(controlPointTableName));
-
-                // In case file no longer exists locally, recreate it
-                String path = m_simulation.getSessionDir()+File.separator+controlPointTableName+".csv";
-                table.export(path,",");
-                table.setFileName(controlPointTableName+".csv");
-
-                // The FileTable is linked to a CSV file containing the current 
-                // control point XYZ coordinates. We will update it using a 
-                // CSVFile object, which contains methods for doing just that. 
-                // Important: Starccm+ updating is cumulative. This means that the 
-                // dx dy dz are the cumulative deltas for all optimizer iterations 
-                // up to now. 
-                CSVFile csv = new CSVFile(path);
-
-                // double cumulativeDelta = currentValue - initialValue;
-
-                try {
-                   // Update CSV file
-                   // Note: the columns of the ControlPointTable are assumed to be
-                    //  col  0  1  2 3 4 5
-                   //       dx dy dz x y z --> hence the "col-3"
-                   // Also, the CSV file has a header row --> hence the "row + 1"
-                   // csv.update(cumulativeDelta,row+1,col-3);
-                   csv.update(currentValue,row+1,col-3);
-
-                   m_toolbox.print("Design Variable " + controlPointID + " = " + currentValue);
-
-                   // Reload CSV file
-                   table.extract();
+            ArrayList<DesignVariable> controlPoints = controlPointTables.get(controlPointTableName);
+
+            // Skip tables already up to date (i.e. same values last applied)
+            if (!isTableChanged(controlPointTableName, controlPoints)){continue;}
+
+            // Get the current values in the table
+            FileTable table = ((FileTable) tableManager.getTable(controlPointTableName));
+
+            // In case file no longer exists locally, recreate it
+            String path = m_simulation.getSessionDir()+File.separator+controlPointTableName+".csv";
+            table.export(path,",");
+            table.setFileName(controlPointTableName+".csv");
+
+            // The FileTable is linked to a CSV file containing the current 
+            // control point XYZ coordinates. We will update it using a 
+            // CSVFile object, which contains methods for doing just that. 
+            // Important: Starccm+ updating is cumulative. This means that the 
+            // dx dy dz are the cumulative deltas for all optimizer iterations 
+            // up to now. 
+            CSVFile csv = new CSVFile(path);
+
+            try {
+                // Update CSV file (in memory, only cells whose value changed)
+                // Note: the columns of the ControlPointTable are assumed to be
+                //  col  0  1  2 3 4 5
+                //       dx dy dz x y z --> hence the "col-3"
+                // Also, the CSV file has a header row --> hence the "row + 1"
+                csv.setBuffered(true);
+                for (DesignVariable controlPoint: controlPoints){
+                    int controlPointID      = controlPoint.getID();
+                    double currentValue     = controlPoint.getCurrentValue();
+                    int row                 = controlPoint.getControlPointTableRow();
+                    int col                 = controlPoint.getControlPointTableCol();
+                    if (!isSameValue(csv.getItem(row+1,col-3), currentValue)){
+                        csv.update(currentValue,row+1,col-3);
+                        m_toolbox.print("Design Variable " + controlPointID + " = " + currentValue);
+                    }
                 }
-                catch (IOException e) {
-                    m_toolbox.print("Design variable "+ controlPointID );
-                    m_toolbox.print("Morpher.class: updateControlPointTable(): "+ e.getMessage());
+
+                // Write and reload CSV file (once per table, only if changed)
+                if (csv.isModified()){
+                    csv.commit();
+                    table.extract();
                 }
+                setTableApplied(controlPointTableName, controlPoints);
+            }
+            catch (IOException e) {
+                m_toolbox.print("Control point table "+ controlPointTableName );
+                m_toolbox.print("Morpher.class: updateControlPointTable(): "+ e.getMessage());
             }
         }
     }
@@ -206,6 +262,37 @@ public class Morpher{
     // ---------------------- P R I V A T E    M E T H O D S -------------------
     // -------------------------------------------------------------------------
 
+    // This method returns true if any control point value differs from the 
+    // value last applied to the table (always true the first time around)
+    private boolean isTableChanged(String tableName, ArrayList<DesignVariable> controlPoints){
+        HashMap<String,Double> appliedValues = m_appliedValues.get(tableName);
+        if (appliedValues == null){return true;}
+        for (DesignVariable controlPoint: controlPoints){
+            String cell = controlPoint.getControlPointTableRow() + "," + controlPoint.getControlPointTableCol();
+            Double value = appliedValues.get(cell);
+            if (value == null || value != controlPoint.getCurrentValue()){return true;}
+        }
+        return false;
+    }
+
+    // This method remembers the control point values applied to the table
+    private void setTableApplied(String tableName, ArrayList<DesignVariable> controlPoints){
+        HashMap<String,Double> appliedValues = new HashMap();
+        for (DesignVariable controlPoint: controlPoints){
+            String cell = controlPoint.getControlPointTableRow() + "," + controlPoint.getControlPointTableCol();
+            appliedValues.put(cell, controlPoint.getCurrentValue());
+        }
+        m_appliedValues.put(tableName, appliedValues);
+    }
+
+    // This method returns true if a table item has the same numerical value 
+    // (Starccm+ may not format numbers the same way Java does)
+    private boolean isSameValue(String item, double value){
+        if (item == null){return false;}
+        try {return Double.parseDouble(item.trim()) == value;}
+        catch (NumberFormatException e){return false;}
+    }
+
     // This method creates a file table
     private FileTable createFileTable(String CSVfilepath,String tableName){
         TableManager tableManager = m_simulation.getTableManager();
@@ -0,0 +1,267 @@
+/*
+ * The purpose of this class is to solve the adjoint for several cost functions
+ * at the same time, in separate Star-CCM+ processes, instead of one after the
+ * other in the current one. The adjoints of different cost functions are
+ * independent, so on a multi-node allocation the gradient phase then takes
+ * about as long as the slowest single cost function.
+ *
+ * The caller saves the converged primal solution. For each cost function, the
+ * simulation file is copied to a working directory and a batch process is
+ * launched on the copy, running a macro (e.g. RunAdjointMacro) that solves the
+ * adjoint for that cost function only and writes its gradient to a file in
+ * the same format as EvaluationCache. Once all processes are done, the
+ * gradients are read back and the copies are deleted. A process still running
+ * after the timeout is killed (a hung Star-CCM+ would otherwise hold up the
+ * optimizer indefinitely), and its cost function is left out of the result,
+ * so that the caller solves it in the current process as for any failure.
+ *
+ * The command is a template, in which the following are substituted:
+ *
+ *      {np}            number of processes per cost function
+ *      {machinefile}   "-machinefile <file>" (one group of hosts per cost
+ *                      function), or "" if no machine file is set
+ *      {macro}         macro to run
+ *      {sim}           copy of the simulation file
+ *      {jvmargs}       -D arguments for the macro (cost_function, output, x, ...)
+ *
+ * e.g. "starccm+ -power -np {np} {machinefile} -classpath ASO.jar
+ *       -jvmargs \"{jvmargs}\" -batch {macro} {sim}"
+ *
+ * The command is run by /bin/sh, so the file paths of {machinefile}, {macro}
+ * and {sim} are single-quoted, and {jvmargs} is escaped for the double quotes
+ * around it. The processes run in the working directory, and the files passed
+ * in {jvmargs} are given relative to it (see getRelativePath), so that spaces
+ * in the directories above do not split the -D arguments.
+ *
+ * This class knows nothing about Star-CCM+ beyond the command line.
+ */
+
+package framework;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * @author shb
+ */
+public class ParallelAdjoint {
+
+    // --- Properties
+    private String m_command;               // template (see above)
+    private String m_macroPath;
+    private String m_workingDirectory;
+    private String m_machineFile;           // null = run locally
+    private int m_numberProcesses;          // per cost function (if no machine file)
+    private long m_timeout;                 // minutes for all processes (0 = none)
+    private HashMap<String,Double> m_accuracies; // of the gradients from the last run
+
+    // --- Constructor
+    public ParallelAdjoint(String command, String macroPath, String workingDirectory){
+        m_command = command;
+        m_macroPath = macroPath;
+        m_workingDirectory = workingDirectory;
+        m_machineFile = null;
+        m_numberProcesses = 1;
+        m_timeout = 0;
+        m_accuracies = new HashMap();
+    }
+
+    // -------------------------------------------------------------------------
+    // ---------------------- P U B L I C   M E T H O D S ----------------------
+    // -------------------------------------------------------------------------
+
+    // This method solves the adjoint of each cost function in its own process,
+    // starting from the simulation file, and returns the gradients for design
+    // x (cost functions whose process failed are missing from the result)
+    public HashMap<String,double[]> run(String simFilepath, ArrayList<String> costFunctionNames,
+                                        double[] x, double tolerance, String jvmargs){
+        HashMap<String,double[]> gradients = new HashMap();
+        m_accuracies.clear();
+        File directory = new File(m_workingDirectory);
+        directory.mkdirs();
+        int n = costFunctionNames.size();
+        ArrayList<ArrayList<String>> hostGroups = getHostGroups(n);
+        Process[] processes = new Process[n];
+        File[] simCopies = new File[n];
+        File[] outputs = new File[n];
+        boolean[] isKilled = new boolean[n];
+        try {
+            for (int i = 0; i < n; i++){
+                String name = costFunctionNames.get(i);
+                simCopies[i] = new File(directory, "Adjoint_" + name + ".sim");
+                outputs[i] = new File(directory, "Adjoint_" + name + ".csv");
+                Files.copy(new File(simFilepath).toPath(), simCopies[i].toPath(), StandardCopyOption.REPLACE_EXISTING);
+                Files.deleteIfExists(outputs[i].toPath());
+                String machineFile = "";
+                int np = m_numberProcesses;
+                if (hostGroups != null){
+                    File hosts = new File(directory, "Adjoint_" + name + ".hosts");
+                    writeLines(hosts, hostGroups.get(i));
+                    machineFile = "-machinefile " + quote(hosts.getAbsolutePath());
+                    np = hostGroups.get(i).size();
+                }
+                String command = m_command.replace("{np}", String.valueOf(np))
+                                          .replace("{machinefile}", machineFile)
+                                          .replace("{macro}", quote(m_macroPath))
+                                          .replace("{sim}", quote(simCopies[i].getAbsolutePath()))
+                                          .replace("{jvmargs}", escape("-Dcost_function=" + name
+                                                              + " -Doutput=" + outputs[i].getName() // in the working directory
+                                                              + " -Dx=" + toString(x)
+                                                              + " " + jvmargs));
+                ProcessBuilder builder = new ProcessBuilder("/bin/sh", "-c", "exec " + command);
+                builder.directory(directory);
+                builder.redirectErrorStream(true);
+                builder.redirectOutput(new File(directory, "Adjoint_" + name + ".log"));
+                processes[i] = builder.start();
+                System.out.println("Launched adjoint for " + name + ": " + command);
+            }
+            long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(m_timeout);
+            for (int i = 0; i < n; i++){
+                boolean isDone = true;
+                if (m_timeout > 0){isDone = processes[i].waitFor(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);}
+                else {processes[i].waitFor();}
+                if (!isDone){
+                    System.out.println("Adjoint process for " + costFunctionNames.get(i) + " timed out, killed");
+                    kill(processes[i]);
+                    isKilled[i] = true;
+                    continue;
+                }
+                int status = processes[i].exitValue();
+                if (status != 0){System.out.println("Adjoint process for " + costFunctionNames.get(i) + " exited with " + status);}
+            }
+        }
+        catch (IOException e){
+            System.out.println("Caught IOException: " + e.getMessage());
+        }
+        catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            for (int i = 0; i < n; i++){
+                if (processes[i] != null && processes[i].isAlive()){
+                    kill(processes[i]);
+                    isKilled[i] = true;
+                }
+            }
+        }
+        for (int i = 0; i < n; i++){
+            if (outputs[i] != null && outputs[i].exists() && !isKilled[i]){
+                String name = costFunctionNames.get(i);
+                EvaluationCache output = new EvaluationCache(outputs[i].getPath(), tolerance);
+                double[] gradient = output.getGradient(x, name);
+                if (gradient != null){gradients.put(name, gradient);}
+                m_accuracies.put(name, output.getGradientAccuracy(x, name));
+            }
+            if (simCopies[i] != null){simCopies[i].delete();}
+        }
+        return gradients;
+    }
+
+    // This method returns the relative accuracy of a gradient from the last
+    // run, as reported by its process (NaN if unknown)
+    public double getAccuracy(String costFunctionName){
+        Double accuracy = m_accuracies.get(costFunctionName);
+        return accuracy == null ? Double.NaN : accuracy;
+    }
+
+    // This method returns the path of a file relative to the working directory,
+    // where the processes run (e.g. for a -D argument passed to them)
+    public String getRelativePath(String filepath){
+        return Paths.get(m_workingDirectory).toAbsolutePath().relativize(Paths.get(filepath).toAbsolutePath()).toString();
+    }
+
+    // This method sets (gets) the machine file listing the hosts (one per
+    // line, e.g. $PBS_NODEFILE), which are split evenly between cost functions
+    public void setMachineFile(String s){m_machineFile = s;}
+    public String getMachineFile(){return m_machineFile;}
+
+    // This method sets (gets) the number of processes per cost function, used
+    // when there is no machine file
+    public void setNumberProcesses(int n){m_numberProcesses = n;}
+    public int getNumberProcesses(){return m_numberProcesses;}
+
+    // This method sets (gets) the time (minutes) after which processes still
+    // running are killed, counted from launch (0 = wait as long as it takes)
+    public void setTimeout(long minutes){m_timeout = minutes;}
+    public long getTimeout(){return m_timeout;}
+
+    // -------------------------------------------------------------------------
+    // ---------------------- P R I V A T E   M E T H O D S --------------------
+    // -------------------------------------------------------------------------
+
+    // This method splits the hosts in the machine file into n contiguous
+    // groups of (nearly) equal size (null if there is no machine file, or
+    // fewer hosts than groups)
+    private ArrayList<ArrayList<String>> getHostGroups(int n){
+        if (m_machineFile == null){return null;}
+        ArrayList<String> hosts = new ArrayList();
+        try (BufferedReader reader = new BufferedReader(new FileReader(m_machineFile))) {
+            String line;
+            while ((line = reader.readLine()) != null){
+                if (!line.trim().isEmpty()){hosts.add(line.trim());}
+            }
+        }
+        catch (IOException e){
+            System.out.println("Caught IOException: " + e.getMessage());
+            return null;
+        }
+        if (hosts.size() < n){return null;}
+        ArrayList<ArrayList<String>> groups = new ArrayList();
+        for (int i = 0; i < n; i++){
+            groups.add(new ArrayList(hosts.subList(i*hosts.size()/n, (i+1)*hosts.size()/n)));
+        }
+        return groups;
+    }
+
+    // This method kills a process, giving Star-CCM+ a minute to shut down its
+    // servers first
+    private void kill(Process process){
+        process.destroy();
+        try {
+            if (!process.waitFor(1, TimeUnit.MINUTES)){process.destroyForcibly().waitFor();}
+        }
+        catch (InterruptedException e){
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // This method quotes a file path for /bin/sh (no character is special
+    // within single quotes, and a single quote is closed, escaped, reopened)
+    private String quote(String path){
+        return "'" + path.replace("'", "'\\''") + "'";
+    }
+
+    // This method escapes the characters that are special within double
+    // quotes for /bin/sh
+    private String escape(String s){
+        return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("$", "\\$").replace("`", "\\`");
+    }
+
+    // This method returns the design vector as a comma separated list (exact)
+    private String toString(double[] x){
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < x.length; i++){
+            if (i > 0){builder.append(',');}
+            builder.append(x[i]);
+        }
+        return builder.toString();
+    }
+
+    // This method writes one line per item
+    private void writeLines(File file, ArrayList<String> lines) throws IOException {
+        try (FileWriter writer = new FileWriter(file)) {
+            for (String line: lines){writer.write(line + "\n");}
+        }
+    }
+}
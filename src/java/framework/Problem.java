@@ -8,6 +8,7 @@ package framework;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.DoubleBuffer;
 import java.util.*;
 
 /**
@@ -21,25 +22,37 @@ public class Problem {
     private int m_numDesignVariables; 
 
     // Objective functions
-    private ArrayList<Double> m_objectiveFunctionValue; 
-    private ArrayList<double[]> m_objectiveFunctionGradient; 
     private ArrayList<String> m_objectiveFunctionName;
     private int m_numObjectiveFunctions; 
 
     // Inequality constraints
-    private ArrayList<Double> m_inequalityConstraintValue; 
-    private ArrayList<double[]> m_inequalityConstraintGradient; 
     private ArrayList<String> m_inequalityConstraintName; 
     private int m_numInequalityConstraints; 
 
     // Equality constraints 
-    private ArrayList<Double> m_equalityConstraintValue; 
-    private ArrayList<double[]> m_equalityConstraintGradient; 
     private ArrayList<String> m_equalityConstraintName; 
     private int m_numEqualityConstraints; 
+    
+    // Functions whose gradients are not needed (e.g. inactive constraints)
+    private HashSet<String> m_inactiveFunctionName; 
+    
+    // Gradients computed outside this simulation for the current design 
+    // (e.g. by parallel adjoint processes)
+    private HashMap<String,double[]> m_externalGradient; 
+    private HashMap<String,Double> m_externalAccuracy; 
+    
+    // Gradient accuracy: required (relative, 0 = any) and achieved per function
+    private double m_gradientTolerance; 
+    private HashMap<String,Double> m_gradientAccuracy; 
+    
+    // Function values and gradients, stored contiguously by function kind: 
+    // objectives first, then equality constraints, then inequality constraints
+    private double[] m_functionValues; 
+    private double[] m_jacobian; // row-major: entry (i,j) is at i*nx+j 
 
     // Function evaluation 
     public Blackbox cfd; 
+    private EvaluationCache m_cache; // null = no caching 
 
     // Independent variable information
     private String m_varnameHeader; 
@@ -57,6 +70,10 @@ public class Problem {
     private String m_functionNameHeader; 
     private String m_functionValueHeader; 
     private String m_partialPrefixHeader; 
+    private String m_statusHeader; 
+    private String m_activeHeader; 
+    private String m_accuracyHeader; 
+    private String m_gradientFailureReason; // of the gradients last read from the simulation
 
     // Function and gradient evaluation counters
     
@@ -81,191 +98,215 @@ public class Problem {
         m_functionNameHeader = "Name";  
         m_functionValueHeader = "F"; 
         m_partialPrefixHeader = "dFd";
+        m_statusHeader = "Status";
+        m_activeHeader = "Active"; // optional: 0 = gradient not needed (written as 0)
+        m_accuracyHeader = "Accuracy";
         
         // Design variables
         designVariables = new ArrayList();
         m_numDesignVariables = 0; 
         
         // Objective functions
-        m_objectiveFunctionValue = new ArrayList();
-        m_objectiveFunctionGradient = new ArrayList();
         m_objectiveFunctionName = new ArrayList(); 
         m_numObjectiveFunctions = 0; 
         
         // Inequality constraints
-        m_inequalityConstraintValue = new ArrayList();
-        m_inequalityConstraintGradient = new ArrayList();
         m_inequalityConstraintName = new ArrayList();  
         m_numInequalityConstraints = 0; 
         
         // Equality constraints
-        m_equalityConstraintValue = new ArrayList(); 
-        m_equalityConstraintGradient = new ArrayList();
         m_equalityConstraintName = new ArrayList(); 
         m_numEqualityConstraints = 0;  
+        m_inactiveFunctionName = new HashSet(); 
+        m_externalGradient = new HashMap(); 
+        m_externalAccuracy = new HashMap(); 
+        m_gradientTolerance = 0.0; 
+        m_gradientAccuracy = new HashMap(); 
+        m_gradientFailureReason = ""; 
+        
+        // Function values and gradients (allocated on first evaluation)
+        m_functionValues = new double[0]; 
+        m_jacobian = new double[0]; 
     }
     
     // -------------------------------------------------------------------------
     // ---------------------- P U B L I C   M E T H O D S ----------------------
     // -------------------------------------------------------------------------
 
-    // This method reads independent variables from a CSV file 
+    // This method reads independent variables from a CSV file and applies
+    // them to the simulation (same as load followed by apply)
     public void readIndependentVariables(String CSVfilepath) {
+        loadIndependentVariables(CSVfilepath);
+        applyIndependentVariables();
+    }
+    
+    // This method reads independent variables from a CSV file, without 
+    // changing the simulation (e.g. to check the cache first)
+    public void loadIndependentVariables(String CSVfilepath) {
+        m_externalGradient.clear(); 
+        m_externalAccuracy.clear(); 
        
-        // Extract data from CSV file
-        CSVFile  csv  = new CSVFile(CSVfilepath); 
+        // Extract data from CSV file (single pass, straight into arrays)
+        CSVStreamReader csv = new CSVStreamReader(CSVfilepath); 
+        csv.addStringColumn(m_varnameHeader);
+        csv.addDoubleColumn(m_xvalHeader);
+        csv.addDoubleColumn(m_xinitialHeader);
+        csv.addDoubleColumn(m_xminHeader);
+        csv.addDoubleColumn(m_xmaxHeader);
+        csv.addDoubleColumn(m_typicalXHeader);
+        csv.addStringColumn(m_controlPointTableIDHeader);
+        csv.addIntColumn(m_controlPointTableRowHeader);
+        csv.addIntColumn(m_controlPointTableColHeader);
         try {
-            String[] name = csv.getColumn(m_varnameHeader);
-            String[] xval = csv.getColumn(m_xvalHeader);
-            String[] x0   = csv.getColumn(m_xinitialHeader);
-            String[] xmin = csv.getColumn(m_xminHeader);
-            String[] xmax = csv.getColumn(m_xmaxHeader);
-            String[] typx = csv.getColumn(m_typicalXHeader);
-            String[] tabl = csv.getColumn(m_controlPointTableIDHeader);
-            String[] rows = csv.getColumn(m_controlPointTableRowHeader);
-            String[] cols = csv.getColumn(m_controlPointTableColHeader);
+            csv.read();
+            String[] name = csv.getStringColumn(m_varnameHeader);
+            double[] xval = csv.getDoubleColumn(m_xvalHeader);
+            double[] x0   = csv.getDoubleColumn(m_xinitialHeader);
+            double[] xmin = csv.getDoubleColumn(m_xminHeader);
+            double[] xmax = csv.getDoubleColumn(m_xmaxHeader);
+            double[] typx = csv.getDoubleColumn(m_typicalXHeader);
+            String[] tabl = csv.getStringColumn(m_controlPointTableIDHeader);
+            int[]    rows = csv.getIntColumn(m_controlPointTableRowHeader);
+            int[]    cols = csv.getIntColumn(m_controlPointTableColHeader);
 
             // Loop through inputs 
             for (int i = 0; i < tabl.length; i++){
                 
-                // Update boundary parameters
-                if (name[i].equals("alpha")){
-                    cfd.setAngleOfAttack(Double.parseDouble(xval[i]));
-                }
-                // place holder for other boundary parameters 
-                
                 // Populate design variable information
                 DesignVariable x = new DesignVariable(  tabl[i],
                                                         name[i],
-                                                        Integer.parseInt(rows[i]),
-                                                        Integer.parseInt(cols[i]), 
-                                                        Double.parseDouble(xval[i]),
-                                                        Double.parseDouble(x0[i]),
-                                                        Double.parseDouble(xmin[i]),
-                                                        Double.parseDouble(xmax[i]),
-                                                        Double.parseDouble(typx[i]));
+                                                        rows[i],
+                                                        cols[i], 
+                                                        xval[i],
+                                                        x0[i],
+                                                        xmin[i],
+                                                        xmax[i],
+                                                        typx[i]);
                 designVariables.add(x); 
                 m_numDesignVariables++;
             }
-            
-            // Update control points
-            cfd.updateControlPoints(designVariables);
         }
         catch (NumberFormatException e){
             // TO DO 
         }
+        catch (IOException e){
+            System.out.println("Caught IOException: " + e.getMessage()); 
+        }
+    }
+    
+    // This method applies the design variables to the simulation
+    public void applyIndependentVariables() {
+        
+        // Update boundary parameters
+        for (DesignVariable x: designVariables){
+            if (x.getVarName().equals("alpha")){
+                cfd.setAngleOfAttack(x.getCurrentValue());
+            }
+            // place holder for other boundary parameters 
+        }
+        
+        // Update control points
+        cfd.updateControlPoints(designVariables);
+    }
+    
+    // This method returns true if all requested functions (and gradients, if 
+    // requested) are cached for the current design, in which case 
+    // writeDependentVariables() does not need the simulation at all
+    public boolean isCached(String CSVfilepath, boolean isWriteGradient) {
+        if (m_cache == null){return false;}
+        readFunctionNames(new CSVFile(CSVfilepath)); 
+        double[] x = getDesignVariables(); 
+        ArrayList<String> names = new ArrayList(); 
+        names.addAll(m_objectiveFunctionName); 
+        names.addAll(m_equalityConstraintName); 
+        names.addAll(m_inequalityConstraintName); 
+        for (String functionName: names){
+            if (!m_cache.hasValue(x, functionName)){return false;}
+            if (isWriteGradient && !m_inactiveFunctionName.contains(functionName) && !hasCachedGradient(x, functionName)){return false;}
+        }
+        return true; 
+    }
+    
+    // This method returns the names of the functions whose gradients must be 
+    // computed for the current design: all requested functions, except those 
+    // marked inactive (column "Active" = 0, if present) or already cached. 
+    // These are the only adjoint cost functions the solver needs to solve for. 
+    public ArrayList<String> getGradientFunctionNames(String CSVfilepath){
+        readFunctionNames(new CSVFile(CSVfilepath)); 
+        double[] x = getDesignVariables(); 
+        ArrayList<String> names = new ArrayList(); 
+        ArrayList<String> all = new ArrayList(); 
+        all.addAll(m_objectiveFunctionName); 
+        all.addAll(m_equalityConstraintName); 
+        all.addAll(m_inequalityConstraintName); 
+        for (String functionName: all){
+            if (m_inactiveFunctionName.contains(functionName)){continue;}
+            if (m_externalGradient.containsKey(functionName)){continue;}
+            if (hasCachedGradient(x, functionName)){continue;}
+            if (!names.contains(functionName)){names.add(functionName);}
+        }
+        return names; 
     }
     
     // This method writes dependent variables from a CSV file  
     public void writeDependentVariables(String CSVfilepath, boolean isWriteGradient) throws IOException {
         
-        // Extract data from CSV file
+        // Extract data from CSV file (edits are buffered and written once)
         CSVFile  csv  = new CSVFile(CSVfilepath); 
+        csv.setBuffered(true);
         try {
             
             // Get requested function names and types from file   
-            m_numObjectiveFunctions = 0; 
-            m_numInequalityConstraints = 0; 
-            m_numEqualityConstraints = 0; 
-            m_objectiveFunctionName = new ArrayList(); 
-            m_inequalityConstraintName = new ArrayList(); 
-            m_equalityConstraintName = new ArrayList(); 
-            String[] type = csv.getColumn(m_functionTypeHeader);
-            String[] func = csv.getColumn(m_functionNameHeader);
-            for (int i = 0; i < type.length; i++) {
-                switch (type[i]) {
-                    case "Objective":
-                        m_numObjectiveFunctions++; 
-                        m_objectiveFunctionName.add(func[i]);
-                        break;
-                    case "Inequality":
-                        m_numInequalityConstraints++;
-                        m_inequalityConstraintName.add(func[i]);
-                        break;
-                    case "Equality":
-                        m_numEqualityConstraints++;
-                        m_equalityConstraintName.add(func[i]);
-                        break;
-                }
-            }
+            readFunctionNames(csv); 
             
-            // Update list values for each function 
-            updateObjectiveFunctionValues();
-            updateInequalityConstraintValues();
-            updateEqualityConstraintValues();
-            if (isWriteGradient){
-                updateObjectiveFunctionGradients();
-                updateInequalityConstraintGradients();
-                updateEqualityConstraintGradients();
+            // Retrieve values (and gradients) into contiguous storage. If the 
+            // evaluation failed, they are NaN (and not cached). 
+            allocate(); 
+            m_gradientFailureReason = ""; 
+            String failureReason = cfd.getFailureReason(); 
+            if (!failureReason.isEmpty()){
+                Arrays.fill(m_functionValues, Double.NaN);
+                Arrays.fill(m_jacobian, Double.NaN);
+            }
+            else {
+                getFunctionValues(m_objectiveFunctionName, getObjectiveOffset());
+                getFunctionValues(m_equalityConstraintName, getEqualityConstraintOffset());
+                getFunctionValues(m_inequalityConstraintName, getInequalityConstraintOffset());
+                if (isWriteGradient){
+                    getGradientValues(m_objectiveFunctionName, getObjectiveOffset());
+                    getGradientValues(m_equalityConstraintName, getEqualityConstraintOffset());
+                    getGradientValues(m_inequalityConstraintName, getInequalityConstraintOffset());
+                }
             }
             
-            // Convert list values to double arrays (for convenience)
+            // Look up the columns once (same for every function)
             int nx = getNumberDesignVariables(); 
-            int nf = getNumberObjectiveFunctions(); 
-            int ng = getNumberInequalityConstraints(); 
-            int nh = getNumberEqualityConstraints(); 
-            double[] f = getObjectiveFunctions(); 
-            double[] g = getInequalityConstraints(); 
-            double[] h = getEqualityConstraints();
-            double[][] dfdx = new double[nf][nx]; 
-            double[][] dgdx = new double[ng][nx];
-            double[][] dhdx = new double[nh][nx];
-            if (isWriteGradient){
-                for (int j = 0; j < nf; j++){System.arraycopy(getObjectiveGradient(j)           , 0, dfdx[j], 0, nx);}
-                for (int j = 0; j < nh; j++){System.arraycopy(getEqualityConstraintGradient(j)  , 0, dhdx[j], 0, nx);}
-                for (int j = 0; j < ng; j++){System.arraycopy(getInequalityConstraintGradient(j), 0, dgdx[j], 0, nx);}
+            int valueCol = csv.getColumnNumber(m_functionValueHeader); 
+            int[] partialCol = new int[nx]; 
+            for (int j = 0; j < nx; j++){
+                String varname = designVariables.get(j).getVarName(); 
+                partialCol[j] = csv.getColumnNumber(m_partialPrefixHeader+varname);
             }
             
             // Finally, write values to file 
             // Format: FunctionType   FunctionName   Target   F   dFdX1   dFdX2...
-            // 
-            // Objective function(s): 
-            int count = 0; 
-            for (String functionName: m_objectiveFunctionName){
-                int row = csv.findRowContainingItem(m_functionNameHeader,functionName);
-                int col = csv.getColumnNumber(m_functionValueHeader); 
-                csv.update(f[count],row,col); 
-                if (isWriteGradient){
-                    for (int j = 0; j < nx; j++){
-                        String varname = designVariables.get(j).getVarName(); 
-                        col = csv.getColumnNumber(m_partialPrefixHeader+varname);
-                        csv.update(dfdx[count][j],row,col);
-                    }
-                }
-                count++; 
-            }
+            writeFunctions(csv, m_objectiveFunctionName, getObjectiveOffset(), valueCol, partialCol, isWriteGradient);
+            writeFunctions(csv, m_equalityConstraintName, getEqualityConstraintOffset(), valueCol, partialCol, isWriteGradient);
+            writeFunctions(csv, m_inequalityConstraintName, getInequalityConstraintOffset(), valueCol, partialCol, isWriteGradient);
             
-            // Equality constraint(s):
-            count = 0; 
-            for (String functionName: m_equalityConstraintName){
-                int row = csv.findRowContainingItem(m_functionNameHeader,functionName);
-                int col = csv.getColumnNumber(m_functionValueHeader); 
-                csv.update(h[count],row,col); 
-                if (isWriteGradient){
-                    for (int j = 0; j < nx; j++){
-                        String varname = designVariables.get(j).getVarName(); 
-                        col = csv.getColumnNumber(m_partialPrefixHeader+varname);
-                        csv.update(dhdx[count][j],row,col);
-                    }
-                }
-                count++;
+            // Mark every row as "OK" or failed (reason code, e.g. "Diverged"; 
+            // "AdjointDiverged" if only the gradients failed)
+            int statusCol = csv.addColumn(m_statusHeader); 
+            String status = !failureReason.isEmpty() ? failureReason 
+                          : !m_gradientFailureReason.isEmpty() ? "Adjoint" + m_gradientFailureReason : "OK"; 
+            int numberRows = csv.getColumn(m_functionNameHeader).length; 
+            for (int row = 1; row <= numberRows; row++){
+                csv.update(status, row, statusCol);
             }
             
-            // Inequality constraint(s):
-            count = 0; 
-            for (String functionName: m_inequalityConstraintName){
-                int row = csv.findRowContainingItem(m_functionNameHeader,functionName);
-                int col = csv.getColumnNumber(m_functionValueHeader); 
-                csv.update(g[count],row,col); 
-                if (isWriteGradient){
-                    for (int j = 0; j < nx; j++){
-                        String varname = designVariables.get(j).getVarName(); 
-                        col = csv.getColumnNumber(m_partialPrefixHeader+varname);
-                        csv.update(dgdx[count][j],row,col);
-                    }
-                }
-                count++;
-            }
+            // Write all updates to file in one go
+            csv.commit();
+            if (m_cache != null){m_cache.commit();}
         }
         catch (NumberFormatException e){e.getMessage();}
     }
@@ -279,6 +320,26 @@ public class Problem {
         return array; 
     }
     
+    // This method returns the design variables scaled by their bounds (e.g. to
+    // measure the distance between designs)
+    public double[] getScaledDesignVariables(){
+        double[] array = new double[m_numDesignVariables];
+        for (int i = 0; i < m_numDesignVariables; i++){
+            DesignVariable x = designVariables.get(i); 
+            double range = x.getMaxValue() - x.getMinValue(); 
+            array[i] = range > 0.0 ? (x.getCurrentValue() - x.getMinValue())/range : x.getCurrentValue(); 
+        }
+        return array; 
+    }
+    
+    // This method returns a key identifying the current design (designs that 
+    // are the same to within the tolerance have the same key). The key is a 
+    // whole number below 2^52, so it is stored exactly as a double. 
+    public double getDesignKey(double tolerance){
+        long[] q = EvaluationCache.quantize(getDesignVariables(), tolerance);
+        return (double) (EvaluationCache.hash(q) >>> 12);
+    }
+    
     // This method returns typical values of the design variables (for scaling)
     public double[] getTypicalValues(){
         double[] array = new double[m_numDesignVariables];
@@ -308,48 +369,86 @@ public class Problem {
     
     // This method returns  all objective function values as an array
     public double[] getObjectiveFunctions(){
-        double[] array = new double[m_numObjectiveFunctions];
-        for (int i = 0; i < m_numObjectiveFunctions; i++){
-            array[i] = m_objectiveFunctionValue.get(i); 
-        }
-        return array; 
+        int offset = getObjectiveOffset(); 
+        return Arrays.copyOfRange(m_functionValues, offset, offset + m_numObjectiveFunctions); 
     }
     
     // This method returns  all inequality constraint values as an array
     public double[] getInequalityConstraints(){
-        double[] array = new double[m_numInequalityConstraints];
-        for (int i = 0; i < m_numInequalityConstraints; i++){
-            array[i] = m_inequalityConstraintValue.get(i); 
-        }
-        return array; 
+        int offset = getInequalityConstraintOffset(); 
+        return Arrays.copyOfRange(m_functionValues, offset, offset + m_numInequalityConstraints); 
     }
     
     // This method returns  all equality constraint values as an array
     public double[] getEqualityConstraints(){
-        double[] array = new double[m_numEqualityConstraints];
-        for (int i = 0; i < m_numEqualityConstraints; i++){
-            array[i] = m_equalityConstraintValue.get(i); 
-        }
-        return array; 
+        int offset = getEqualityConstraintOffset(); 
+        return Arrays.copyOfRange(m_functionValues, offset, offset + m_numEqualityConstraints); 
     }
     
     // This method returns  the nth objective function gradient values as an array
     public double[] getObjectiveGradient(int n){
-        return m_objectiveFunctionGradient.get(n); 
+        return getJacobianRow(getObjectiveOffset() + n); 
     }
     
     // This method returns  the nth inequality constraint gradient values as an array
     public double[] getInequalityConstraintGradient(int n){
-        return m_inequalityConstraintGradient.get(n); 
+        return getJacobianRow(getInequalityConstraintOffset() + n); 
     }
     
     // This method returns  the nth equality constraint gradient values as an array
     public double[] getEqualityConstraintGradient(int n){
-        return m_equalityConstraintGradient.get(n); 
+        return getJacobianRow(getEqualityConstraintOffset() + n); 
+    }
+    
+    // These methods return views of the function values, without copying. 
+    // Views share storage with the problem, so they reflect the latest 
+    // evaluation (they are invalidated if the number of functions grows). 
+    public DoubleBuffer getObjectiveFunctionView(){
+        return view(m_functionValues, getObjectiveOffset(), m_numObjectiveFunctions); 
+    }
+    public DoubleBuffer getEqualityConstraintView(){
+        return view(m_functionValues, getEqualityConstraintOffset(), m_numEqualityConstraints); 
+    }
+    public DoubleBuffer getInequalityConstraintView(){
+        return view(m_functionValues, getInequalityConstraintOffset(), m_numInequalityConstraints); 
+    }
+    
+    // These methods return views of the gradients, without copying. Rows are 
+    // stored one after the other: entry (i,j) of a view is at i*nx+j, where i 
+    // is the function and j the design variable. 
+    public DoubleBuffer getObjectiveJacobianView(){
+        int nx = m_numDesignVariables; 
+        return view(m_jacobian, getObjectiveOffset()*nx, m_numObjectiveFunctions*nx); 
+    }
+    public DoubleBuffer getEqualityConstraintJacobianView(){
+        int nx = m_numDesignVariables; 
+        return view(m_jacobian, getEqualityConstraintOffset()*nx, m_numEqualityConstraints*nx); 
+    }
+    public DoubleBuffer getInequalityConstraintJacobianView(){
+        int nx = m_numDesignVariables; 
+        return view(m_jacobian, getInequalityConstraintOffset()*nx, m_numInequalityConstraints*nx); 
     }
     
+    // This method supplies the gradient of a function for the current design,
+    // computed elsewhere (e.g. in a separate Star-CCM+ process). It is used 
+    // instead of the simulation until the design changes. 
+    public void putGradient(String functionName, double[] gradient){
+        putGradient(functionName, gradient, Double.NaN);
+    }
+    public void putGradient(String functionName, double[] gradient, double accuracy){
+        m_externalGradient.put(functionName, gradient.clone()); 
+        m_externalAccuracy.put(functionName, accuracy); 
+    }
+    
+    // This method sets (gets) how accurate gradients need to be (relative). 
+    // Cached gradients known to be less accurate are recomputed. 
+    public void setGradientTolerance(double d){m_gradientTolerance = d;}
+    public double getGradientTolerance(){return m_gradientTolerance;}
+    
     // This methods updates the design variables 
     public void updateDesignVariables(double[] x){
+        m_externalGradient.clear(); 
+        m_externalAccuracy.clear(); 
         for (int i = 0; i < m_numDesignVariables; i++){
             designVariables.get(i).setCurrentValue(x[i]); 
         }
@@ -382,6 +481,10 @@ public class Problem {
         return m_equalityConstraintName.get(index);
     }
     
+    // This method sets (gets) the cache used to answer repeat evaluations
+    public void setEvaluationCache(EvaluationCache cache){m_cache = cache;}
+    public EvaluationCache getEvaluationCache(){return m_cache;}
+    
     // This method sets (gets) the input table name
     public void setFunctionTypeHeader(String s){m_functionTypeHeader = s;}
     public String getFunctionTypeHeader(){return m_functionTypeHeader;}
@@ -398,6 +501,14 @@ public class Problem {
     public void setPartialPrefixHeader(String s){m_partialPrefixHeader = s;}
     public String getPartialPrefixHeader(){return m_partialPrefixHeader;}
     
+    // This method sets (gets) the "Active" column name expected in the output table
+    public void setActiveHeader(String s){m_activeHeader = s;}
+    public String getActiveHeader(){return m_activeHeader;}
+    
+    // This method sets (gets) the "Status" column name written to the output table
+    public void setStatusHeader(String s){m_statusHeader = s;}
+    public String getStatusHeader(){return m_statusHeader;}
+    
     // This method sets (gets) the "Xval" column name expected in the input table
     public void setXvalHeader(String s){m_xvalHeader = s;}
     public String getXvalHeader(){return m_xvalHeader;}
@@ -434,72 +545,140 @@ public class Problem {
     // ---------------------- P R I V A T E   M E T H O D S --------------------
     // -------------------------------------------------------------------------
     
-    // This method retrieves the objective functions values
-    private void updateObjectiveFunctionValues(){
-        if (m_numObjectiveFunctions > 0) {
-            getFunctionValues(m_objectiveFunctionValue,m_objectiveFunctionName);
+    // This method reads the requested function names and types from file
+    private void readFunctionNames(CSVFile csv){
+        m_numObjectiveFunctions = 0; 
+        m_numInequalityConstraints = 0; 
+        m_numEqualityConstraints = 0; 
+        m_objectiveFunctionName = new ArrayList(); 
+        m_inequalityConstraintName = new ArrayList(); 
+        m_equalityConstraintName = new ArrayList(); 
+        m_inactiveFunctionName = new HashSet(); 
+        String[] type = csv.getColumn(m_functionTypeHeader);
+        String[] func = csv.getColumn(m_functionNameHeader);
+        String[] active = csv.hasColumn(m_activeHeader) ? csv.getColumn(m_activeHeader) : new String[type.length];
+        for (int i = 0; i < type.length; i++) {
+            if (active[i] != null && (active[i].trim().equals("0") || active[i].trim().equalsIgnoreCase("false"))){
+                m_inactiveFunctionName.add(func[i]);
+            }
+            switch (type[i]) {
+                case "Objective":
+                    m_numObjectiveFunctions++; 
+                    m_objectiveFunctionName.add(func[i]);
+                    break;
+                case "Inequality":
+                    m_numInequalityConstraints++;
+                    m_inequalityConstraintName.add(func[i]);
+                    break;
+                case "Equality":
+                    m_numEqualityConstraints++;
+                    m_equalityConstraintName.add(func[i]);
+                    break;
+            }
         }
     }
     
-    // This method retrieves the inequality constraint values
-    private void updateInequalityConstraintValues(){
-        if (m_numInequalityConstraints > 0) {
-            getFunctionValues(m_inequalityConstraintValue,m_inequalityConstraintName);
-        }
+    // These methods return the first row of each function kind
+    private int getObjectiveOffset(){return 0;}
+    private int getEqualityConstraintOffset(){return m_numObjectiveFunctions;}
+    private int getInequalityConstraintOffset(){return m_numObjectiveFunctions + m_numEqualityConstraints;}
+    
+    // This method makes sure storage is large enough for all functions. It 
+    // only reallocates if the problem grew, so storage is reused across calls.
+    private void allocate(){
+        int n = m_numObjectiveFunctions + m_numEqualityConstraints + m_numInequalityConstraints; 
+        if (m_functionValues.length < n){m_functionValues = new double[n];}
+        if (m_jacobian.length < n*m_numDesignVariables){m_jacobian = new double[n*m_numDesignVariables];}
     }
     
-    // This method retrieves the equality constraint values
-    private void updateEqualityConstraintValues(){
-        if (m_numEqualityConstraints > 0) {
-            getFunctionValues(m_equalityConstraintValue,m_equalityConstraintName);
-        }
+    // This method returns a view of part of an array 
+    private DoubleBuffer view(double[] array, int offset, int length){
+        return DoubleBuffer.wrap(array, offset, length).slice(); 
     }
     
-    // This method retrieves the values corresponding to the function in the list
-    private void getFunctionValues(ArrayList<Double> values, ArrayList<String> functionNames){
-        int numberItems = functionNames.size();
-        if (numberItems > 0){
-            values.clear(); 
-            for (String functionName: functionNames){
-                Double value = cfd.getFunctionValue(functionName); 
-                values.add(value);  
-            }
-        }
+    // This method returns a copy of a row of the Jacobian 
+    private double[] getJacobianRow(int row){
+        int nx = m_numDesignVariables; 
+        return Arrays.copyOfRange(m_jacobian, row*nx, (row+1)*nx); 
     }
     
-    // This method updates the objective functions gradient values
-    private void updateObjectiveFunctionGradients(){
-        if (m_numObjectiveFunctions > 0) {
-            getGradientValues(m_objectiveFunctionGradient, m_objectiveFunctionName);
+    // This method retrieves the values corresponding to the function in the 
+    // list (from the cache if possible, otherwise from the simulation)
+    private void getFunctionValues(ArrayList<String> functionNames, int offset){
+        double[] x = getDesignVariables(); 
+        for (int i = 0; i < functionNames.size(); i++){
+            String functionName = functionNames.get(i); 
+            Double value = m_cache == null ? null : m_cache.getValue(x, functionName); 
+            if (value == null){
+                value = cfd.getFunctionValue(functionName); 
+                if (m_cache != null){m_cache.putValue(x, functionName, value);}
+            }
+            m_functionValues[offset+i] = value; 
         }
     }
     
-    // This method updates the objective functions gradient values
-    private void updateInequalityConstraintGradients(){
-        if (m_numInequalityConstraints > 0) {
-            getGradientValues(m_inequalityConstraintGradient, m_inequalityConstraintName);
+    // This method retrieves the gradients corresponding to the function in the
+    // list (from the cache if possible, otherwise from the simulation)
+    private void getGradientValues(ArrayList<String> functionNames, int offset){
+        double[] x = getDesignVariables(); 
+        int nx = m_numDesignVariables; 
+        for (int i = 0; i < functionNames.size(); i++){
+            String functionName = functionNames.get(i); 
+            if (m_inactiveFunctionName.contains(functionName)){ // not solved for: written as 0 (e.g. inactive constraint)
+                Arrays.fill(m_jacobian, (offset+i)*nx, (offset+i+1)*nx, 0.0);
+                m_gradientAccuracy.put(functionName, Double.NaN); 
+                continue; 
+            }
+            double[] grad = m_externalGradient.get(functionName); 
+            double accuracy = Double.NaN; 
+            boolean isNew = grad != null; 
+            if (grad != null){accuracy = m_externalAccuracy.get(functionName);}
+            else if (hasCachedGradient(x, functionName)){
+                grad = m_cache.getGradient(x, functionName); 
+                accuracy = m_cache.getGradientAccuracy(x, functionName); 
+            }
+            else if (!cfd.getGradientFailureReason().isEmpty()){ // adjoint failed: no gradient (not cached)
+                grad = new double[nx]; 
+                Arrays.fill(grad, Double.NaN);
+                m_gradientFailureReason = cfd.getGradientFailureReason(); 
+            }
+            else {
+                grad = cfd.getGradient(functionName,designVariables); 
+                accuracy = cfd.getGradientAccuracy(); 
+                isNew = true; 
+            }
+            if (isNew && m_cache != null){
+                m_cache.putGradient(x, functionName, grad);
+                if (!Double.isNaN(accuracy)){m_cache.putGradientAccuracy(x, functionName, accuracy);}
+            }
+            m_gradientAccuracy.put(functionName, accuracy); 
+            System.arraycopy(grad, 0, m_jacobian, (offset+i)*nx, nx);
         }
     }
     
-    // This method updates the objective functions gradient values
-    private void updateEqualityConstraintGradients(){
-        if (m_numEqualityConstraints > 0) {
-            getGradientValues(m_equalityConstraintGradient, m_equalityConstraintName);
+    // This method writes the values (and gradients) of the functions in the list 
+    private void writeFunctions(CSVFile csv, ArrayList<String> functionNames, int offset, int valueCol, int[] partialCol, boolean isWriteGradient) throws IOException {
+        int nx = m_numDesignVariables; 
+        int accuracyCol = isWriteGradient ? csv.addColumn(m_accuracyHeader) : -1; 
+        for (int i = 0; i < functionNames.size(); i++){
+            int row = csv.findRowContainingItem(m_functionNameHeader,functionNames.get(i));
+            csv.update(m_functionValues[offset+i],row,valueCol); 
+            if (isWriteGradient){
+                int start = (offset+i)*nx; 
+                for (int j = 0; j < nx; j++){
+                    csv.update(m_jacobian[start+j],row,partialCol[j]);
+                }
+                Double accuracy = m_gradientAccuracy.get(functionNames.get(i)); 
+                csv.update(accuracy == null ? Double.NaN : accuracy,row,accuracyCol); 
+            }
         }
     }
     
-    // This method updates the objective functions gradient values
-    private void getGradientValues(ArrayList<double[]> values, ArrayList<String> functionNames){
-        int numberItems = functionNames.size(); 
-        if (numberItems > 0){
-            values.clear(); 
-            for (String functionName: functionNames){
-                double[] grad = new double[m_numDesignVariables]; 
-                for (int i = 0; i < m_numDesignVariables; i++){
-                    grad[i] = cfd.getPartialDerivative(functionName,designVariables.get(i)); 
-                } 
-                values.add(grad);  
-            }
-        }
+    // This method returns true if the gradient of a function is cached for 
+    // design x, and not known to be less accurate than required
+    private boolean hasCachedGradient(double[] x, String functionName){
+        if (m_cache == null || !m_cache.hasGradient(x, functionName)){return false;}
+        double accuracy = m_cache.getGradientAccuracy(x, functionName); 
+        return m_gradientTolerance <= 0.0 || Double.isNaN(accuracy) || accuracy <= m_gradientTolerance; 
     }
 }
@@ -0,0 +1,138 @@
+/*
+ * The purpose of this class is to keep the results of finished cases (e.g.
+ * one per row of a DOE) in a small machine-readable file, so that drivers
+ * (RunDOE.py, DOEScheduler) read them directly instead of scanning each log
+ * for the residual printout, and can resume an interrupted DOE by skipping
+ * the cases already there.
+ *
+ * The store is an append-only CSV file: a header, written with the first
+ * record, then one record per finished case, e.g.
+ *
+ *      id,CL,CD,CM,Cells,PrimalSteps,AdjointSteps,PrimalSeconds,...,Status
+ *      3,0.512,0.0123,-0.071,24576,412,0,95.2,...,Converged
+ *
+ * Later records for the same id override earlier ones. Records only have the
+ * columns of the header (others are dropped, missing ones left empty), so all
+ * macros writing to the same store should record the same things. Several
+ * cases may finish at the same time (see DOEScheduler), so the file is locked
+ * while a record is appended.
+ *
+ * This class knows nothing about Star-CCM+.
+ */
+
+package framework;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+
+/**
+ *
+ * @author shb
+ */
+public class ResultStore {
+
+    // --- Properties
+    private final String m_filepath;
+    private final String m_idHeader;
+    private final LinkedHashMap<String,String> m_record; // not yet appended
+
+    // --- Constructor
+    public ResultStore(String filepath){
+        m_filepath = filepath;
+        m_idHeader = "id";
+        m_record = new LinkedHashMap();
+    }
+
+    // -------------------------------------------------------------------------
+    // ---------------------- P U B L I C   M E T H O D S ----------------------
+    // -------------------------------------------------------------------------
+
+    // This method adds an item to the record of the current case
+    public void put(String name, String value){m_record.put(name, value);}
+    public void put(String name, double value){m_record.put(name, String.valueOf(value));}
+    public void put(String name, long value){m_record.put(name, String.valueOf(value));}
+
+    // This method appends the record of the current case to the store, under
+    // the given id, and starts a new record
+    public void append(String id){
+        LinkedHashMap<String,String> record = new LinkedHashMap();
+        record.put(m_idHeader, id);
+        record.putAll(m_record);
+        m_record.clear();
+        try (RandomAccessFile file = new RandomAccessFile(m_filepath, "rw");
+             FileChannel channel = file.getChannel();
+             FileLock lock = channel.lock()) {
+            ArrayList<String> header;
+            StringBuilder sb = new StringBuilder();
+            if (file.length() == 0){
+                header = new ArrayList(record.keySet());
+                sb.append(String.join(",", header)).append('\n');
+            }
+            else {
+                file.seek(0);
+                header = new ArrayList(Arrays.asList(file.readLine().trim().split(",")));
+                for (String name: record.keySet()){
+                    if (!header.contains(name)){System.out.println("Result " + name + " not in " + m_filepath + ", dropped");}
+                }
+            }
+            ArrayList<String> items = new ArrayList();
+            for (String name: header){items.add(record.containsKey(name) ? record.get(name).replace(",", ";") : "");}
+            sb.append(String.join(",", items)).append('\n');
+            file.seek(file.length());
+            file.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        catch (IOException e){
+            System.out.println("Caught IOException: " + e.getMessage());
+        }
+    }
+
+    // This method returns the ids of all cases in the store
+    public ArrayList<String> getIds(){
+        ArrayList<String> ids = new ArrayList();
+        for (String id: read().keySet()){ids.add(id);}
+        return ids;
+    }
+
+    // This method returns the latest record of a case (null if not in store)
+    public LinkedHashMap<String,String> get(String id){return read().get(id);}
+
+    // This method returns the path of the store
+    public String getFilepath(){return m_filepath;}
+
+    // -------------------------------------------------------------------------
+    // ---------------------- P R I V A T E   M E T H O D S --------------------
+    // -------------------------------------------------------------------------
+
+    // This method reads all records (latest per id), in the order cases were
+    // first stored
+    private LinkedHashMap<String,LinkedHashMap<String,String>> read(){
+        LinkedHashMap<String,LinkedHashMap<String,String>> records = new LinkedHashMap();
+        if (!new File(m_filepath).exists()){return records;}
+        try (BufferedReader reader = new BufferedReader(new FileReader(m_filepath))) {
+            String line = reader.readLine();
+            if (line == null){return records;}
+            String[] header = line.trim().split(",");
+            while ((line = reader.readLine()) != null){
+                if (line.trim().isEmpty()){continue;}
+                String[] items = line.split(",", -1);
+                if (items.length != header.length){continue;} // partly written
+                LinkedHashMap<String,String> record = new LinkedHashMap();
+                for (int j = 0; j < header.length; j++){record.put(header[j], items[j].trim());}
+                records.put(record.get(m_idHeader), record);
+            }
+        }
+        catch (IOException e){
+            System.out.println("Caught IOException: " + e.getMessage());
+        }
+        return records;
+    }
+}
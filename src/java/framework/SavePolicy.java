@@ -0,0 +1,140 @@
+/*
+ * The purpose of this class is to decide when the simulation is saved, and
+ * what is written, rather than saving the full simulation (mesh, solution,
+ * histories, plots) after every evaluation or adaptation level, which is slow
+ * on large cases and on shared file systems. One of the following policies
+ * decides when:
+ *
+ *  "Always"        after every evaluation
+ *  "Never"         not at all
+ *  "EveryN"        after every n-th evaluation
+ *  "Best"          only after evaluations that improve on the best objective
+ *                  so far (lowest; failed evaluations, i.e. NaN, never do)
+ *
+ * and the following options decide what:
+ *
+ *  strip histories     residual and monitor histories are cleared first
+ *  artifacts only      only the small files needed to restart (solution
+ *                      table, report values) are written, not the simulation
+ *
+ * Since each evaluation may be a separate Star-CCM+ run, the number of
+ * evaluations and the best objective can be kept in a state file, e.g.
+ *
+ *      <number of evaluations>,<best objective>
+ *
+ * This class knows nothing about Star-CCM+: the caller asks isSaveDue() after
+ * each evaluation, and saves accordingly (see Solver.saveState).
+ */
+
+package framework;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ *
+ * @author shb
+ */
+public class SavePolicy {
+
+    // --- Properties
+    private String m_policy;
+    private int m_interval;                 // "EveryN"
+    private boolean m_isStripHistories;
+    private boolean m_isArtifactsOnly;
+    private String m_stateFilepath;         // null = state kept in memory only
+    private int m_numberEvaluations;
+    private double m_bestObjective;
+
+    // --- Constructor
+    public SavePolicy(String policy){
+        m_policy = policy;
+        m_interval = 1;
+        m_isStripHistories = false;
+        m_isArtifactsOnly = false;
+        m_stateFilepath = null;
+        m_numberEvaluations = 0;
+        m_bestObjective = Double.POSITIVE_INFINITY;
+    }
+
+    // -------------------------------------------------------------------------
+    // ---------------------- P U B L I C   M E T H O D S ----------------------
+    // -------------------------------------------------------------------------
+
+    // This method records an evaluation and returns true if the simulation
+    // should be saved now
+    public boolean isSaveDue(double objective){
+        m_numberEvaluations++;
+        boolean isBest = !Double.isNaN(objective) && objective < m_bestObjective;
+        if (isBest){m_bestObjective = objective;}
+        save();
+        switch (m_policy) {
+            case "Always":
+                return true;
+            case "EveryN":
+                return m_interval > 0 && m_numberEvaluations % m_interval == 0;
+            case "Best":
+                return isBest;
+            default: // "Never"
+                return false;
+        }
+    }
+
+    // This method sets (gets) the number of evaluations between saves ("EveryN")
+    public void setInterval(int n){m_interval = n;}
+    public int getInterval(){return m_interval;}
+
+    // This method sets (gets) whether histories are cleared before saving
+    public void setStripHistories(boolean b){m_isStripHistories = b;}
+    public boolean isStripHistories(){return m_isStripHistories;}
+
+    // This method sets (gets) whether only restart artifacts are written
+    // instead of the simulation
+    public void setArtifactsOnly(boolean b){m_isArtifactsOnly = b;}
+    public boolean isArtifactsOnly(){return m_isArtifactsOnly;}
+
+    // This method sets (gets) the file in which the number of evaluations and
+    // the best objective are kept between runs (read now if it exists)
+    public void setStateFilepath(String s){
+        m_stateFilepath = s;
+        load();
+    }
+    public String getStateFilepath(){return m_stateFilepath;}
+
+    // This method returns the number of evaluations recorded so far
+    public int getNumberEvaluations(){return m_numberEvaluations;}
+
+    // This method returns the best objective recorded so far
+    public double getBestObjective(){return m_bestObjective;}
+
+    // -------------------------------------------------------------------------
+    // ---------------------- P R I V A T E   M E T H O D S --------------------
+    // -------------------------------------------------------------------------
+
+    // This method reads the state file (if any)
+    private void load(){
+        if (m_stateFilepath == null || !new File(m_stateFilepath).exists()){return;}
+        try (BufferedReader reader = new BufferedReader(new FileReader(m_stateFilepath))) {
+            String[] items = reader.readLine().split(",");
+            m_numberEvaluations = Integer.parseInt(items[0].trim());
+            m_bestObjective = Double.parseDouble(items[1].trim());
+        }
+        catch (IOException | NullPointerException | NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            System.out.println("Could not read save policy state " + m_stateFilepath + ": " + e.getMessage());
+        }
+    }
+
+    // This method writes the state file (if any)
+    private void save(){
+        if (m_stateFilepath == null){return;}
+        try (FileWriter writer = new FileWriter(m_stateFilepath)) {
+            writer.write(m_numberEvaluations + "," + m_bestObjective + "\n");
+        }
+        catch (IOException e) {
+            System.out.println("Caught IOException: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * The purpose of this class is to keep converged primal solutions, so that a
+ * new evaluation (design or flight condition) can be initialized from the
+ * nearest one already solved instead of from freestream. This helps most for
+ * DOE and multi-start runs that jump around the design space.
+ *
+ * Each snapshot is a CSV file (written by the caller, e.g. solution fields
+ * exported from Star-CCM+) stored in its own directory, together with an
+ * index file Snapshots.csv, one line per snapshot:
+ *
+ *      <file>,<last used>,<k1>,<k2>,...    <---- key (flight condition, design)
+ *
+ * The nearest snapshot is the one whose key is closest (Euclidean distance),
+ * so keys should be scaled such that all entries have similar magnitudes.
+ * When the snapshots take up more than the disk budget, the least recently
+ * used ones are deleted.
+ */
+
+package framework;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ *
+ * @author shb
+ */
+public class SnapshotLibrary {
+
+    // --- Properties
+    private final File m_directory;
+    private final long m_diskBudget;        // bytes
+    private double m_maxDistance;           // beyond this, no snapshot is used
+    private final ArrayList<Snapshot> m_snapshots;
+
+    // One stored solution
+    private static class Snapshot {
+        String file;
+        long lastUsed;
+        double[] key;
+    }
+
+    // --- Constructor
+    public SnapshotLibrary(String directory, long diskBudget){
+        m_directory = new File(directory);
+        m_diskBudget = diskBudget;
+        m_maxDistance = Double.POSITIVE_INFINITY;
+        m_snapshots = new ArrayList();
+        m_directory.mkdirs();
+        try {load();}
+        catch (IOException e) {
+            System.out.println("Caught IOException: " + e.getMessage());
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // ---------------------- P U B L I C   M E T H O D S ----------------------
+    // -------------------------------------------------------------------------
+
+    // This method returns the path of the snapshot nearest to key (null if
+    // none is within the max distance) and marks it as recently used
+    public String getNearest(double[] key){
+        Snapshot nearest = null;
+        double minDistance = m_maxDistance;
+        for (Snapshot snapshot: m_snapshots){
+            double distance = getDistance(snapshot.key, key);
+            if (distance <= minDistance){
+                nearest = snapshot;
+                minDistance = distance;
+            }
+        }
+        if (nearest == null){return null;}
+        nearest.lastUsed = System.currentTimeMillis();
+        save();
+        return getPath(nearest);
+    }
+
+    // This method returns a new path the caller can write a snapshot to (the
+    // snapshot is only used once added)
+    public String getNewPath(){
+        String name = "Snapshot_" + System.currentTimeMillis() + ".csv";
+        for (int i = 1; new File(m_directory, name).exists(); i++){
+            name = "Snapshot_" + System.currentTimeMillis() + "_" + i + ".csv";
+        }
+        return new File(m_directory, name).getPath();
+    }
+
+    // This method adds a snapshot written to filepath (see getNewPath) and
+    // deletes the least recently used ones if over budget. A snapshot with
+    // the same key is replaced.
+    public void add(double[] key, String filepath){
+        for (int i = m_snapshots.size() - 1; i >= 0; i--){
+            if (getDistance(m_snapshots.get(i).key, key) == 0.0){delete(i);}
+        }
+        Snapshot snapshot = new Snapshot();
+        snapshot.file = new File(filepath).getName();
+        snapshot.lastUsed = System.currentTimeMillis();
+        snapshot.key = key.clone();
+        m_snapshots.add(snapshot);
+        evict();
+        save();
+    }
+
+    // This method returns the number of snapshots stored
+    public int getNumberSnapshots(){return m_snapshots.size();}
+
+    // This method returns the disk space used by all snapshots (bytes)
+    public long getDiskUsage(){
+        long bytes = 0;
+        for (Snapshot snapshot: m_snapshots){bytes += new File(getPath(snapshot)).length();}
+        return bytes;
+    }
+
+    // This method sets (gets) the max distance between keys for a snapshot
+    // to be used
+    public void setMaxDistance(double d){m_maxDistance = d;}
+    public double getMaxDistance(){return m_maxDistance;}
+
+    // -------------------------------------------------------------------------
+    // ---------------------- P R I V A T E   M E T H O D S --------------------
+    // -------------------------------------------------------------------------
+
+    // This method returns the distance between two keys (infinite if they are
+    // not the same length, e.g. different number of design variables)
+    private double getDistance(double[] a, double[] b){
+        if (a.length != b.length){return Double.POSITIVE_INFINITY;}
+        double sum = 0.0;
+        for (int i = 0; i < a.length; i++){sum += (a[i] - b[i])*(a[i] - b[i]);}
+        return Math.sqrt(sum);
+    }
+
+    // This method returns the path of a snapshot
+    private String getPath(Snapshot snapshot){return new File(m_directory, snapshot.file).getPath();}
+
+    // This method deletes the least recently used snapshots until within budget
+    // (the newest one is always kept)
+    private void evict(){
+        long bytes = getDiskUsage();
+        while (bytes > m_diskBudget && m_snapshots.size() > 1){
+            int oldest = 0;
+            for (int i = 1; i < m_snapshots.size(); i++){
+                if (m_snapshots.get(i).lastUsed < m_snapshots.get(oldest).lastUsed){oldest = i;}
+            }
+            bytes -= new File(getPath(m_snapshots.get(oldest))).length();
+            delete(oldest);
+        }
+    }
+
+    // This method removes a snapshot and its file
+    private void delete(int i){
+        new File(getPath(m_snapshots.get(i))).delete();
+        m_snapshots.remove(i);
+    }
+
+    // This method reads the index. Snapshots whose file is missing and lines
+    // that cannot be parsed are skipped.
+    private void load() throws IOException {
+        File index = new File(m_directory, "Snapshots.csv");
+        if (!index.exists()){return;}
+        try (BufferedReader reader = new BufferedReader(new FileReader(index))) {
+            String line;
+            while ((line = reader.readLine()) != null){
+                String[] items = line.split(",");
+                try {
+                    Snapshot snapshot = new Snapshot();
+                    snapshot.file = items[0];
+                    snapshot.lastUsed = Long.parseLong(items[1]);
+                    snapshot.key = new double[items.length-2];
+                    for (int i = 0; i < snapshot.key.length; i++){snapshot.key[i] = Double.parseDouble(items[i+2]);}
+                    if (new File(getPath(snapshot)).exists()){m_snapshots.add(snapshot);}
+                }
+                catch (NumberFormatException | ArrayIndexOutOfBoundsException e){} // skip line
+            }
+        }
+    }
+
+    // This method rewrites the index
+    private void save(){
+        StringBuilder sb = new StringBuilder();
+        for (Snapshot snapshot: m_snapshots){
+            sb.append(snapshot.file).append(',').append(snapshot.lastUsed);
+            for (double k: snapshot.key){sb.append(',').append(k);}
+            sb.append('\n');
+        }
+        try (FileWriter writer = new FileWriter(new File(m_directory, "Snapshots.csv"))) {
+            writer.write(sb.toString());
+        }
+        catch (IOException e) {
+            System.out.println("Caught IOException: " + e.getMessage());
+        }
+    }
+}
@@ -5,8 +5,11 @@
 
 package framework;
 
+import star.base.neo.NeoObjectVector;
+import star.base.report.Report;
 import star.common.*;
 import star.coupledflow.*;
+import star.energy.StaticTemperatureProfile;
 import star.flow.*;
 import star.kwturb.KOmegaTurbulence;
 import star.kwturb.KwAllYplusWallTreatment;
@@ -15,7 +18,18 @@ import star.material.SingleComponentGasModel;
 import star.turbulence.RansTurbulenceModel;
 import star.turbulence.TurbulentModel;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
 
 /**
  *
@@ -34,6 +48,32 @@ public class Solver extends Toolbox {
     private double m_primalCFL;
     private double m_adjointCFL;
     private double m_referencePressure; 
+    private boolean m_isPrimalConverged; // last primal run stopped before max steps
+    private ConvergenceMonitor m_convergenceMonitor; // null = run fixed number of steps
+    private int m_numberStepsPerChunk; 
+    private String m_stopReason; // why the last primal run stopped
+    private CFLSchedule m_cflSchedule; // null = constant primal CFL
+    private ConvergenceMonitor m_adjointConvergenceMonitor; // null = run fixed number of steps
+    private double m_adjointSwitchResidualDrop; // orders of magnitude (1st- to 2nd-order)
+    private int m_numberAdjointStepsPerChunk; 
+    private String m_adjointStopReason; // why the last adjoint run stopped
+    private boolean m_isAdjointWarmRestart; // start from previous adjoint solution
+    private Watchdog m_watchdog; // null = never abort the primal early
+    private Watchdog m_adjointWatchdog; // null = never abort the adjoint early
+    private ArrayList<String> m_adjointCostFunctionNames; // null = solve all cost functions
+    private ArrayList<String> m_adjointProducts; // computed after each adjoint run (null = all)
+    private HashSet<String> m_computedAdjointProducts; // since last adjoint run (null = none run yet)
+    private double m_gradientTolerance; // relative (0 = use adjoint convergence monitor as is)
+    private double m_gradientAccuracy; // achieved by the last adjoint run (NaN = unknown)
+    private String m_failureReason; // why the last primal run failed ("" if it did not)
+    private double m_primalSwitchResidualDrop; // orders of magnitude (1st- to 2nd-order)
+    private int m_gridSequencingLevels; // coarse levels (0 = no grid sequencing)
+    private int m_gridSequencingIterations; // max per level
+    private double m_gridSequencingTolerance; // residual drop per level (fraction)
+    private int m_numberPrimalStepsRun; // since created
+    private int m_numberAdjointStepsRun; // since created
+    private double m_primalSeconds; // wall time, since created
+    private double m_adjointSeconds; // wall time, since created
     
     // --- Constructor 
     public Solver(Simulation sim) {
@@ -45,18 +85,182 @@ public class Solver extends Toolbox {
         m_primalCFL = 5.0; 
         m_adjointCFL = 5.0; 
         m_referencePressure = 101325; // Pa
+        m_numberStepsPerChunk = 20; 
+        m_stopReason = ""; 
+        m_adjointSwitchResidualDrop = 2.0; 
+        m_numberAdjointStepsPerChunk = 5; 
+        m_adjointStopReason = ""; 
+        m_failureReason = ""; 
+        m_gradientTolerance = 0.0; 
+        m_gradientAccuracy = Double.NaN; 
+        m_primalSwitchResidualDrop = 2.0; 
+        m_gridSequencingLevels = 0; 
+        m_gridSequencingIterations = 50; 
+        m_gridSequencingTolerance = 0.05; 
+        m_numberPrimalStepsRun = 0; 
+        m_numberAdjointStepsRun = 0; 
+        m_primalSeconds = 0.0; 
+        m_adjointSeconds = 0.0; 
     }
     
     // -------------------------------------------------------------------------
     // ---------------------- P U B L I C   M E T H O D S ----------------------
     // -------------------------------------------------------------------------
     
-    public void setPrimalCFL(double d){m_primalCFL = d;}
+    public void setPrimalCFL(double d){m_primalCFL = d;} // initial, if a CFL schedule is set
     public void setAdjointCFL(double d){m_adjointCFL = d;}
     
     public double getPrimalCFL(){return m_primalCFL;}
     public double getAdjointCFL(){return m_adjointCFL;}
     
+    // This method sets (gets) the convergence criteria used to stop the primal
+    // solver early. If none is set, the primal runs the number of steps asked.
+    public void setConvergenceMonitor(ConvergenceMonitor c){m_convergenceMonitor = c;}
+    public ConvergenceMonitor getConvergenceMonitor(){return m_convergenceMonitor;}
+    
+    // This method sets (gets) how many steps are run between convergence checks
+    public void setNumberStepsPerChunk(int n){m_numberStepsPerChunk = n;}
+    public int getNumberStepsPerChunk(){return m_numberStepsPerChunk;}
+    
+    // This method returns why the last primal run stopped: "Residual", 
+    // "Asymptotic", "MaxSteps", "Monitor" (Star-CCM+ stopping criterion), or 
+    // the reason it failed (see getFailureReason)
+    public String getStopReason(){return m_stopReason;}
+    
+    // This method sets (gets) the watchdog used to abort the primal solver as 
+    // soon as it diverges, produces NaN, or stalls. If none is set, the primal
+    // only stops when converged or out of steps. 
+    public void setWatchdog(Watchdog w){m_watchdog = w;}
+    public Watchdog getWatchdog(){return m_watchdog;}
+    
+    // This method returns why the last primal run failed: "NaN", "Diverged", 
+    // "Stalled", or "" if it did not (results are then not to be trusted)
+    public String getFailureReason(){return m_failureReason;}
+    public boolean isPrimalFailed(){return !m_failureReason.isEmpty();}
+    
+    // This method forgets why the last primal and adjoint runs stopped or 
+    // failed (call at the start of each evaluation, so that results answered 
+    // without running are not marked with the reasons of an earlier run)
+    public void clearStopReasons(){
+        m_stopReason = ""; 
+        m_failureReason = ""; 
+        m_adjointStopReason = ""; 
+    }
+    
+    // This method sets (gets) how much the 1st-order primal residuals must drop
+    // (orders of magnitude) before switching to 2nd-order (see warm-start)
+    public void setPrimalSwitchResidualDrop(double d){m_primalSwitchResidualDrop = d;}
+    public double getPrimalSwitchResidualDrop(){return m_primalSwitchResidualDrop;}
+    
+    // This method sets (gets) the grid sequencing initialization used by the 
+    // primal warm-start: number of coarse levels (0 = off), maximum number of 
+    // iterations per level, and convergence tolerance per level
+    public void setGridSequencingLevels(int n){m_gridSequencingLevels = n;}
+    public int getGridSequencingLevels(){return m_gridSequencingLevels;}
+    public void setGridSequencingIterations(int n){m_gridSequencingIterations = n;}
+    public int getGridSequencingIterations(){return m_gridSequencingIterations;}
+    public void setGridSequencingTolerance(double d){m_gridSequencingTolerance = d;}
+    public double getGridSequencingTolerance(){return m_gridSequencingTolerance;}
+    
+    // This method sets (gets) how the primal CFL is varied during a run 
+    // ("Linear", "Geometric", "Adaptive"). If none is set, the primal CFL 
+    // is used throughout. Otherwise runs from a fresh solution start from 
+    // the primal CFL (or the schedule's initial CFL), and other runs carry on 
+    // from the CFL the previous run ended with.
+    public void setCFLSchedule(CFLSchedule c){m_cflSchedule = c;}
+    public CFLSchedule getCFLSchedule(){return m_cflSchedule;}
+    
+    // This method sets (gets) the convergence criteria used to drive the 
+    // adjoint solver: residuals are adjoint residual monitors, reports are 
+    // sensitivity reports (e.g. "Gradient of CD w.r.t. angle-of-attack"). If 
+    // none is set, the adjoint runs the number of steps asked. 
+    public void setAdjointConvergenceMonitor(ConvergenceMonitor c){m_adjointConvergenceMonitor = c;}
+    public ConvergenceMonitor getAdjointConvergenceMonitor(){return m_adjointConvergenceMonitor;}
+    
+    // This method sets (gets) how much the 1st-order adjoint residuals must 
+    // drop (orders of magnitude) before switching to 2nd-order
+    public void setAdjointSwitchResidualDrop(double d){m_adjointSwitchResidualDrop = d;}
+    public double getAdjointSwitchResidualDrop(){return m_adjointSwitchResidualDrop;}
+    
+    // This method sets (gets) how many adjoint steps are run between checks
+    public void setNumberAdjointStepsPerChunk(int n){m_numberAdjointStepsPerChunk = n;}
+    public int getNumberAdjointStepsPerChunk(){return m_numberAdjointStepsPerChunk;}
+    
+    // This method returns why the last adjoint run stopped: "Residual", 
+    // "Asymptotic" (sensitivities stable), "MaxSteps", "Monitor", or the 
+    // reason it failed (see isAdjointFailed)
+    public String getAdjointStopReason(){return m_adjointStopReason;}
+    
+    // This method sets (gets) the watchdog used to abort the adjoint solver as
+    // soon as its residuals diverge or produce NaN, whether or not an adjoint 
+    // convergence monitor is set. If none is set (and the adjoint convergence 
+    // monitor has no divergence ratio), adjoint divergence is not detected. 
+    public void setAdjointWatchdog(Watchdog w){m_adjointWatchdog = w;}
+    public Watchdog getAdjointWatchdog(){return m_adjointWatchdog;}
+    
+    // This method returns true if the last adjoint run failed ("NaN", 
+    // "Diverged", "Stalled"): its sensitivities are then not computed and its
+    // gradients are not to be trusted
+    public boolean isAdjointFailed(){
+        return m_adjointStopReason.equals("NaN") || m_adjointStopReason.equals("Diverged") || m_adjointStopReason.equals("Stalled");
+    }
+    
+    // This method sets (gets) whether the adjoint starts from the previous 
+    // adjoint solution (e.g. previous design) instead of zero. The 1st-order 
+    // warm-start is then skipped. If the adjoint fails (see adjoint watchdog),
+    // it is cleared and rerun. 
+    public void setAdjointWarmRestart(boolean b){m_isAdjointWarmRestart = b;}
+    public boolean isAdjointWarmRestart(){return m_isAdjointWarmRestart;}
+    
+    // This method sets (gets) the adjoint cost functions to solve for in the 
+    // next adjoint runs (e.g. only those whose gradients are requested); the 
+    // others are excluded. If none is set, all cost functions are solved. 
+    public void setAdjointCostFunctionNames(ArrayList<String> names){m_adjointCostFunctionNames = names;}
+    public ArrayList<String> getAdjointCostFunctionNames(){return m_adjointCostFunctionNames;}
+    
+    // This method sets (gets) the products derived from the adjoint solution 
+    // that are computed at the end of each adjoint run: "MeshSensitivity" 
+    // (needed for gradients w.r.t. control points) and "ErrorEstimates" 
+    // (needed for mesh adaptation). If none is set, both are computed. Any 
+    // product left out can still be computed on demand (see below). 
+    public void setAdjointProducts(ArrayList<String> products){m_adjointProducts = products;}
+    public ArrayList<String> getAdjointProducts(){return m_adjointProducts;}
+    
+    // This method computes a product derived from the adjoint solution, unless
+    // it is already up to date with the last adjoint run (or no adjoint was 
+    // run yet, in which case the simulation is used as is)
+    public void computeAdjointProduct(String product){
+        if (m_computedAdjointProducts == null || m_computedAdjointProducts.contains(product)){return;}
+        switch (product){
+            case "MeshSensitivity": 
+                m_simulation.getSolverManager().getSolver(AdjointMeshSolver.class).computeMeshSensitivity();
+                break; 
+            case "ErrorEstimates": 
+                m_simulation.getSolverManager().getSolver(AdjointFlowSolver.class).computeAdjointErrorEstimates();
+                break; 
+            default: 
+                return; 
+        }
+        m_computedAdjointProducts.add(product); 
+    }
+    
+    // This method sets (gets) how accurate gradients need to be: the adjoint 
+    // stops as soon as the sensitivity reports of the adjoint convergence 
+    // monitor are stable to within this relative tolerance (e.g. loose early 
+    // in the optimization, tight near the optimum). If not set (0), the 
+    // asymptotic tolerance of the monitor is used. 
+    public void setGradientTolerance(double d){m_gradientTolerance = d;}
+    public double getGradientTolerance(){return m_gradientTolerance;}
+    
+    // This method returns the relative accuracy of the sensitivities achieved 
+    // by the last adjoint run (NaN if unknown, e.g. no adjoint monitor)
+    public double getGradientAccuracy(){return m_gradientAccuracy;}
+    
+    // This method returns true if there is an adjoint solution to restart from
+    public boolean hasAdjointSolution(){
+        return m_toolbox.getGlobalScalarParameter("AdjointSolution", 0.0) > 0.0;
+    }
+    
     // This method clears the previous setup
     public void clear(){
         ContinuumManager continuumManager = m_simulation.getContinuumManager(); 
@@ -175,14 +379,10 @@ public class Solver extends Toolbox {
     }
     // *************************************************************************
    
-    // This method runs the primal solver
-    public void runPrimal(int numberSteps){
-        CoupledImplicitSolver coupledImplicitSolver = ((CoupledImplicitSolver) m_simulation.getSolverManager().getSolver(CoupledImplicitSolver.class));
-        coupledImplicitSolver.setCFL(m_primalCFL);
-        increaseMaxSteps(numberSteps);
-        enableMonitorIterationStoppingCriterion(true);
-        m_simulation.getSimulationIterator().run();
-    } 
+    // This method runs the primal solver. If a convergence monitor is set, 
+    // numberSteps is the maximum and the solver stops as soon as converged. 
+    // If a CFL schedule is set, the CFL is updated between chunks. 
+    public void runPrimal(int numberSteps){runPrimalSteps(numberSteps, false);} 
     
     // This method clear the residual histories and restarts the primal solver
     public void restartPrimal(int numberSteps){
@@ -191,23 +391,482 @@ public class Solver extends Toolbox {
         runPrimal(numberSteps);
     } 
     
-    // This method runs the adjoint solver
+    // This method runs the primal solver from a fresh solution (e.g. new or 
+    // adapted mesh): histories are cleared, the solution is initialized by grid
+    // sequencing (if levels are set), run 1st-order until its residuals have 
+    // dropped by the switch residual drop, then run 2nd-order as usual. The 
+    // step numbers are maxima (unused 1st-order steps are passed on to the 
+    // 2nd-order phase); the switch requires a convergence monitor, otherwise 
+    // all 1st-order steps are run. 
+    public void runPrimalWithWarmStart(int number1stOrderSteps, int number2ndOrderSteps){
+        clearHistories();
+        if (m_cflSchedule != null){m_cflSchedule.reset();} // fresh solution
+        PhysicsContinuum physicsContinuum = ((PhysicsContinuum) m_simulation.getContinuumManager().getContinuum(m_physicsContinuumName));
+        CoupledFlowModel coupledFlowModel = physicsContinuum.getModelManager().getModel(CoupledFlowModel.class);
+        
+        // Initialize on coarse levels of the mesh
+        if (m_gridSequencingLevels > 0){initializeWithGridSequencing(coupledFlowModel);}
+        
+        // Warm-start using 1st-order scheme
+        int numberSteps = 0; 
+        if (number1stOrderSteps > 0){
+            coupledFlowModel.getUpwindOption().setSelected(FlowUpwindOption.Type.FIRST_ORDER);
+            numberSteps = runPrimalSteps(number1stOrderSteps, true);
+            coupledFlowModel.getUpwindOption().setSelected(FlowUpwindOption.Type.SECOND_ORDER);
+            if (isPrimalFailed()){return;}
+        }
+        
+        // Run using 2nd-order scheme
+        runPrimalSteps(number2ndOrderSteps + Math.max(0, number1stOrderSteps - numberSteps), false);
+    } 
+    
+    // This method records which design the current primal solution is for, and
+    // whether it converged. This is stored in the simulation (as global 
+    // parameters) so that it is saved with it and can be checked by the next 
+    // macro run, e.g. to go straight to the adjoint when gradients are asked 
+    // for the design that was just solved. 
+    public void setPrimalDesign(double designKey){
+        m_toolbox.setGlobalScalarParameter("PrimalDesignKey", designKey);
+        m_toolbox.setGlobalScalarParameter("PrimalConverged", m_isPrimalConverged ? 1.0 : 0.0);
+    }
+    
+    // This method forgets which design the current primal solution is for 
+    // (e.g. because the mesh was morphed)
+    public void clearPrimalDesign(){
+        if (isPrimalDesign(-1.0)){return;} // nothing to clear
+        m_toolbox.setGlobalScalarParameter("PrimalDesignKey", -1.0);
+        m_toolbox.setGlobalScalarParameter("PrimalConverged", 0.0);
+    }
+    
+    // This method returns the number of primal (adjoint) steps run, and the 
+    // wall time they took (s), since this object was created 
+    public int getNumberPrimalStepsRun(){return m_numberPrimalStepsRun;}
+    public int getNumberAdjointStepsRun(){return m_numberAdjointStepsRun;}
+    public double getPrimalSeconds(){return m_primalSeconds;}
+    public double getAdjointSeconds(){return m_adjointSeconds;}
+    
+    // This method adds the outcome of the runs so far to the record of the 
+    // current case: report values (NaN if missing), number of cells, steps 
+    // run and wall times, and status ("Converged", "NotConverged", "Failed") 
+    // with the reasons the primal and adjoint stopped (see ResultStore)
+    public void putResult(ResultStore store, ArrayList<String> reportNames){
+        for (String name: reportNames){
+            store.put(name, m_simulation.getReportManager().has(name) ? m_toolbox.getReportValue(name) : Double.NaN);
+        }
+        String elementCountReportName = "Element_Count"; // same as MeshAdaptation
+        boolean isCreated = !m_simulation.getReportManager().has(elementCountReportName); 
+        if (isCreated){m_toolbox.createElementCountReport(elementCountReportName, m_fluidRegionName);}
+        store.put("Cells", (long) m_toolbox.getReportValue(elementCountReportName));
+        if (isCreated){m_toolbox.deleteReport(elementCountReportName);}
+        store.put("PrimalSteps", m_numberPrimalStepsRun);
+        store.put("AdjointSteps", m_numberAdjointStepsRun);
+        store.put("PrimalSeconds", m_primalSeconds);
+        store.put("AdjointSeconds", m_adjointSeconds);
+        store.put("StopReason", m_stopReason);
+        store.put("AdjointStopReason", m_adjointStopReason);
+        store.put("Status", isPrimalFailed() ? "Failed" : m_isPrimalConverged ? "Converged" : "NotConverged");
+    }
+    
+    // This method returns true if the current primal solution is for this design
+    public boolean isPrimalDesign(double designKey){
+        return m_toolbox.getGlobalScalarParameter("PrimalDesignKey", -1.0) == designKey;
+    }
+    
+    // This method returns true if the current primal solution converged, as 
+    // recorded with its design by setPrimalDesign (possibly by an earlier macro run)
+    public boolean isPrimalConverged(){
+        return m_toolbox.getGlobalScalarParameter("PrimalConverged", 0.0) == 1.0;
+    } 
+    
+    // This method returns true if the last primal run of this object converged
+    // (whether or not it was recorded with setPrimalDesign)
+    public boolean isLastPrimalConverged(){return m_isPrimalConverged;}
+    
+    // This method runs the adjoint solver. If an adjoint convergence monitor is 
+    // set, the step numbers are maxima: the 1st-order warm-start ends as soon 
+    // as its residuals have dropped enough (unused steps are passed on to the 
+    // 2nd-order phase) and the 2nd-order phase ends as soon as converged. 
     public void runAdjoint(int numberSteps){runAdjointWithWarmStart(0, numberSteps);}
     public void runAdjointWithWarmStart(int number1stOrderGMRESSteps, int number2ndOrderGMRESSteps){
+        // Solve only for the requested cost functions (if any), otherwise for 
+        // all of them (flags saved with the .sim by an earlier run are reset)
+        if (m_adjointCostFunctionNames != null && m_adjointCostFunctionNames.isEmpty()){
+            m_toolbox.print("Adjoint solver skipped: no cost function requested");
+            return; 
+        }
+        for (String name: m_toolbox.getAdjointCostFunctionNames()){
+            m_toolbox.activateAdjointCostFunction(name, m_adjointCostFunctionNames == null || m_adjointCostFunctionNames.contains(name));
+        }
+        if (m_adjointCostFunctionNames != null){
+            m_toolbox.print("Adjoint cost functions: " + m_adjointCostFunctionNames);
+        }
+        
+        // Stop once the sensitivities are as accurate as needed (if set), and 
+        // put the user's tolerance back whatever happens
+        if (m_adjointConvergenceMonitor == null){
+            runAdjointSolver(number1stOrderGMRESSteps, number2ndOrderGMRESSteps);
+            return; 
+        }
+        double asymptoticTolerance = m_adjointConvergenceMonitor.getAsymptoticTolerance(); 
+        if (m_gradientTolerance > 0.0){m_adjointConvergenceMonitor.setAsymptoticTolerance(m_gradientTolerance);}
+        try {
+            runAdjointSolver(number1stOrderGMRESSteps, number2ndOrderGMRESSteps);
+        }
+        finally {
+            m_adjointConvergenceMonitor.setAsymptoticTolerance(asymptoticTolerance);
+        }
+    } 
+    
+    // This method clears the current solution, but does not reset the mesh
+    public void clearSolutionButDoNotResetMesh(){
+        Solution solution = m_simulation.getSolution(); 
+        solution.clearSolution(Solution.Clear.History, 
+                               Solution.Clear.Fields, 
+                               Solution.Clear.AdjointFlow);
+        m_toolbox.setGlobalScalarParameter("AdjointSolution", 0.0);
+        if (m_cflSchedule != null){m_cflSchedule.reset();}
+    }
+    
+    // This method clears histories but not the solution
+    public void clearHistories(){
+        Solution solution = m_simulation.getSolution();
+        solution.clearSolution(Solution.Clear.History);
+    }
+
+    // This method clears the adjoint solution
+    public void clearAdjoint(){
+        Solution solution = m_simulation.getSolution();
+        solution.clearSolution(Solution.Clear.AdjointFlow);
+        m_toolbox.setGlobalScalarParameter("AdjointSolution", 0.0);
+    }
+    
+    // This method writes the primal solution (pressure, temperature, velocity 
+    // at cell centroids of the fluid region) to a CSV file, e.g. as a snapshot 
+    public void exportSolution(String filepath){
+        TableManager tableManager = m_simulation.getTableManager(); 
+        XyzInternalTable table; 
+        if (tableManager.has("Solution Snapshot")){
+            table = (XyzInternalTable) tableManager.getTable("Solution Snapshot"); 
+        }
+        else {
+            table = tableManager.createTable(XyzInternalTable.class);
+            table.setPresentationName("Solution Snapshot");
+            table.getParts().setObjects(m_simulation.getRegionManager().getRegion(m_fluidRegionName));
+            FieldFunctionManager fieldFunctionManager = m_simulation.getFieldFunctionManager(); 
+            PrimitiveFieldFunction velocity = (PrimitiveFieldFunction) fieldFunctionManager.getFunction("Velocity");
+            table.setFieldFunctions(new NeoObjectVector(new Object[] {fieldFunctionManager.getFunction("Pressure"), 
+                                                                      fieldFunctionManager.getFunction("Temperature"), 
+                                                                      velocity.getComponentFunction(0), 
+                                                                      velocity.getComponentFunction(1), 
+                                                                      velocity.getComponentFunction(2)}));
+        }
+        table.extract();
+        table.export(filepath, ",");
+    }
+    
+    // This method initializes the primal solution from a CSV file written by 
+    // exportSolution() (interpolated in space, so the mesh may differ, e.g. 
+    // morphed). The initial conditions are then set back to what they were 
+    // (e.g. freestream). Turbulence and adjoint fields are not affected. 
+    public void initializeSolution(String filepath){
+        
+        // Copy to a fixed file, so that the same file table can be reused 
+        String tablePath = m_simulation.getSessionDir() + File.separator + "SolutionSnapshot.csv"; 
+        String[] header; 
+        try {
+            Files.copy(Paths.get(filepath), Paths.get(tablePath), StandardCopyOption.REPLACE_EXISTING);
+            try (BufferedReader reader = new BufferedReader(new FileReader(tablePath))) {
+                header = reader.readLine().split(",");
+            }
+        }
+        catch (IOException | NullPointerException e){
+            m_toolbox.print("Could not read solution " + filepath + ": " + e.getMessage());
+            return; 
+        }
+        TableManager tableManager = m_simulation.getTableManager(); 
+        FileTable table; 
+        if (tableManager.has("Solution Snapshot File")){
+            table = (FileTable) tableManager.getTable("Solution Snapshot File");
+            table.extract(); // re-read file
+        }
+        else {
+            table = (FileTable) tableManager.createFromFile(tablePath);
+            table.setPresentationName("Solution Snapshot File");
+        }
+        
+        // Initial condition profiles and matching columns (e.g. "Pressure (Pa)")
+        PhysicsContinuum physicsContinuum = ((PhysicsContinuum) m_simulation.getContinuumManager().getContinuum(m_physicsContinuumName));
+        VelocityProfile velocityProfile = physicsContinuum.getInitialConditions().get(VelocityProfile.class);
+        ScalarProfile[] profiles = {physicsContinuum.getInitialConditions().get(InitialPressureProfile.class), 
+                                    physicsContinuum.getInitialConditions().get(StaticTemperatureProfile.class), 
+                                    velocityProfile.getMethod(CompositeVectorProfileMethod.class).getProfile(0), 
+                                    velocityProfile.getMethod(CompositeVectorProfileMethod.class).getProfile(1), 
+                                    velocityProfile.getMethod(CompositeVectorProfileMethod.class).getProfile(2)}; 
+        String[] fieldNames = {"Pressure", "Temperature", "Velocity[i]", "Velocity[j]", "Velocity[k]"}; 
+        
+        // Switch to tabulated initial conditions, initialize, and switch back
+        Class[] methods = new Class[profiles.length]; 
+        for (int i = 0; i < profiles.length; i++){
+            String column = getColumnName(header, fieldNames[i]); 
+            if (column == null){continue;} // keep initial condition as is
+            methods[i] = profiles[i].getMethod().getClass(); 
+            profiles[i].setMethod(XyzTabularScalarProfileMethod.class);
+            profiles[i].getMethod(XyzTabularScalarProfileMethod.class).setTable(table);
+            profiles[i].getMethod(XyzTabularScalarProfileMethod.class).setData(column);
+        }
+        Solution solution = m_simulation.getSolution(); 
+        solution.clearSolution(Solution.Clear.History, Solution.Clear.Fields);
+        solution.initializeSolution();
+        for (int i = 0; i < profiles.length; i++){
+            if (methods[i] != null){profiles[i].setMethod(methods[i]);}
+        }
+        if (m_cflSchedule != null){m_cflSchedule.reset();}
+        clearPrimalDesign(); // not the solution of the current design (yet)
+    }
+    
+    // This method records an evaluation with the save policy and saves the 
+    // simulation to filepath if it is due (always if there is no policy): 
+    // either the full simulation (histories cleared first if the policy says 
+    // so), or only the restart artifacts (see saveArtifacts)
+    public void saveState(SavePolicy policy, double objective, String filepath){
+        if (policy == null){
+            m_simulation.saveState(filepath);
+            return; 
+        }
+        if (!policy.isSaveDue(objective)){return;}
+        if (policy.isArtifactsOnly()){
+            saveArtifacts(filepath);
+            return; 
+        }
+        if (policy.isStripHistories()){clearHistories();}
+        m_simulation.saveState(filepath);
+    }
+    
+    // This method writes the small files needed to restart, instead of the 
+    // simulation file: the primal solution (<name>_Solution.csv, see 
+    // exportSolution) and the value of every report and state parameter 
+    // (<name>_Reports.csv), where <name> is filepath without extension
+    public void saveArtifacts(String filepath){
+        String name = filepath.endsWith(".sim") ? filepath.substring(0, filepath.length() - 4) : filepath; 
+        exportSolution(name + "_Solution.csv");
+        StringBuilder sb = new StringBuilder("Name,Value\n"); 
+        for (Report report: m_simulation.getReportManager().getObjects()){
+            sb.append(report.getPresentationName()).append(',').append(report.getReportMonitorValue()).append('\n');
+        }
+        for (String parameterName: Arrays.asList("PrimalDesignKey", "PrimalConverged", "AdjointSolution")){
+            sb.append(parameterName).append(',').append(m_toolbox.getGlobalScalarParameter(parameterName, Double.NaN)).append('\n');
+        }
+        try (FileWriter writer = new FileWriter(name + "_Reports.csv")) {
+            writer.write(sb.toString());
+        }
+        catch (IOException e){
+            m_toolbox.print("Caught IOException: " + e.getMessage());
+        }
+    }
+    
+    // This method initializes the primal solution from the artifacts written 
+    // by saveArtifacts (returns false if there are none)
+    public boolean restoreArtifacts(String filepath){
+        String name = filepath.endsWith(".sim") ? filepath.substring(0, filepath.length() - 4) : filepath; 
+        if (!new File(name + "_Solution.csv").exists()){return false;}
+        initializeSolution(name + "_Solution.csv");
+        return true; 
+    }
+    
+    // -------------------------------------------------------------------------
+    // ---------------------- P R I V A T E   M E T H O D S --------------------
+    // -------------------------------------------------------------------------
+
+    // This method runs the primal solver for (at most) numberSteps and returns 
+    // the number of steps run. A warm-start (1st-order) stops once residuals 
+    // have dropped enough to switch to 2nd-order, otherwise the run stops once 
+    // converged. 
+    private int runPrimalSteps(int numberSteps, boolean isWarmStart){
+        long start = System.nanoTime(); 
+        SimulationIterator simulationIterator = m_simulation.getSimulationIterator(); 
+        int firstStep = simulationIterator.getCurrentIteration(); 
+        CoupledImplicitSolver coupledImplicitSolver = ((CoupledImplicitSolver) m_simulation.getSolverManager().getSolver(CoupledImplicitSolver.class));
+        coupledImplicitSolver.setCFL(m_cflSchedule == null ? m_primalCFL : m_cflSchedule.start(m_primalCFL));
+        enableMonitorIterationStoppingCriterion(!isWarmStart); // 1st-order solution is not the answer
+        if (m_convergenceMonitor == null && m_cflSchedule == null && m_watchdog == null){
+            int maxSteps = increaseMaxSteps(numberSteps);
+            simulationIterator.run();
+            boolean isStopped = simulationIterator.getCurrentIteration() < maxSteps; // stopped by monitor
+            m_stopReason = isStopped ? "Monitor" : "MaxSteps"; 
+        }
+        else {
+            runPrimalInChunks(coupledImplicitSolver, numberSteps, isWarmStart);
+        }
+        boolean isFailed = m_stopReason.equals("NaN") || m_stopReason.equals("Diverged") || m_stopReason.equals("Stalled");
+        m_failureReason = isFailed ? m_stopReason : ""; 
+        m_isPrimalConverged = !isFailed && !isWarmStart && !m_stopReason.equals("MaxSteps");
+        int stepsRun = simulationIterator.getCurrentIteration() - firstStep; 
+        m_numberPrimalStepsRun += stepsRun; 
+        m_primalSeconds += (System.nanoTime() - start)*1e-9; 
+        if (isWarmStart && !isFailed){
+            m_toolbox.print("Primal switched to 2nd-order after " + stepsRun + " steps");
+        }
+        else {
+            m_toolbox.print("Primal solver stopped: " + m_stopReason);
+        }
+        if (m_stopReason.equals("NaN") || m_stopReason.equals("Diverged")){
+            clearSolutionButDoNotResetMesh(); // don't start the next run from garbage
+        }
+        enableMonitorIterationStoppingCriterion(true);
+        return stepsRun; 
+    }
+    
+    // This method initializes the primal solution by grid sequencing (inviscid
+    // solutions on successively finer coarsened meshes), then switches the 
+    // initialization method back to what it was, so that other initializations 
+    // (e.g. from snapshots) are not affected
+    private void initializeWithGridSequencing(CoupledFlowModel coupledFlowModel){
+        CoupledInitializationMethodOption option = coupledFlowModel.getCoupledInitializationMethodOption(); 
+        CoupledInitializationMethodOption.Type method = option.getSelectedElement(); 
+        option.setSelected(CoupledInitializationMethodOption.Type.GRID_SEQUENCING);
+        GridSequencingInit gridSequencingInit = coupledFlowModel.getGridSequencingInit(); 
+        gridSequencingInit.setMaxGSLevels(m_gridSequencingLevels);
+        gridSequencingInit.setMaxGSIterations(m_gridSequencingIterations);
+        gridSequencingInit.setConvGSTol(m_gridSequencingTolerance);
+        gridSequencingInit.setGSCfl(m_cflSchedule == null ? m_primalCFL : m_cflSchedule.start(m_primalCFL));
+        Solution solution = m_simulation.getSolution(); 
+        solution.clearSolution(Solution.Clear.History, Solution.Clear.Fields);
+        solution.initializeSolution();
+        option.setSelected(method);
+        clearPrimalDesign(); // not the solution of the current design (yet)
+        m_toolbox.print("Primal initialized by grid sequencing (" + m_gridSequencingLevels + " levels)");
+    }
+    
+    // This method runs the primal solver in chunks, checking for convergence
+    // (and failure) and updating the CFL between chunks, until converged (or 
+    // ready to switch to 2nd-order if warm-starting), failed, or numberSteps 
+    // have been run
+    private void runPrimalInChunks(CoupledImplicitSolver coupledImplicitSolver, int numberSteps, boolean isWarmStart){
+        SimulationIterator simulationIterator = m_simulation.getSimulationIterator(); 
+        if (m_convergenceMonitor != null){m_convergenceMonitor.reset();}
+        if (m_watchdog != null){m_watchdog.reset();}
+        m_stopReason = "MaxSteps"; 
+        int firstStep = simulationIterator.getCurrentIteration(); 
+        int remainingSteps = numberSteps; 
+        while (remainingSteps > 0){
+            int chunk = Math.min(m_numberStepsPerChunk, remainingSteps); 
+            int startStep = simulationIterator.getCurrentIteration(); 
+            int maxSteps = increaseMaxSteps(chunk);
+            simulationIterator.run();
+            int currentStep = simulationIterator.getCurrentIteration(); 
+            remainingSteps -= chunk; 
+            if (m_convergenceMonitor != null){
+                m_convergenceMonitor.record(currentStep - startStep, 
+                        getResidualValues(m_convergenceMonitor.getResidualNames()), getReportValues(getExistingReportNames(m_convergenceMonitor.getReportNames()))); // missing reports skipped
+            }
+            if (currentStep < maxSteps){ // stopped by a Star-CCM+ stopping criterion
+                m_stopReason = "Monitor"; 
+                break; 
+            }
+            if (isWarmStart){
+                if (m_convergenceMonitor != null && m_primalSwitchResidualDrop > 0.0 && m_convergenceMonitor.getResidualDrop() >= m_primalSwitchResidualDrop){
+                    m_stopReason = "Switched"; 
+                    break; 
+                }
+            }
+            else if (m_convergenceMonitor != null && m_convergenceMonitor.isConverged()){
+                m_stopReason = m_convergenceMonitor.getStopReason(); 
+                break; 
+            }
+            if (m_watchdog != null){
+                String failure = m_watchdog.check(getResidualValues(m_watchdog.getResidualNames()), 
+                        getReportValues(getExistingReportNames(m_watchdog.getReportNames()))); // NaN of a missing report is not a failure
+                if (!failure.isEmpty()){
+                    m_stopReason = failure; 
+                    m_toolbox.print("Primal solver aborted after " + (currentStep - firstStep) + " steps");
+                    break; 
+                }
+            }
+            if (m_cflSchedule != null && remainingSteps > 0){
+                double CFL = m_cflSchedule.update(getMaxResidualValue(m_cflSchedule.getResidualNames()));
+                coupledImplicitSolver.setCFL(CFL);
+                m_toolbox.print("Primal CFL: " + CFL);
+            }
+        }
+    }
+    
+    // This method runs the adjoint solver for (at most) numberSteps and returns
+    // the number of steps run. If an adjoint convergence monitor or watchdog 
+    // is set, the residuals and reports are checked between chunks: a 
+    // warm-start stops once the residuals have dropped enough to switch to 
+    // 2nd-order, otherwise the run stops once converged, and any run stops as
+    // soon as it fails. 
+    private int runAdjointSteps(AdjointRunnableSolver adjointRunnableSolver, int numberSteps, boolean isWarmStart){
+        SimulationIterator simulationIterator = m_simulation.getSimulationIterator(); 
+        int firstStep = simulationIterator.getCurrentIteration(); 
+        m_adjointStopReason = "MaxSteps"; 
+        if (m_adjointConvergenceMonitor == null && m_adjointWatchdog == null){
+            increaseMaxSteps(numberSteps);
+            simulationIterator.run(adjointRunnableSolver);
+            m_numberAdjointStepsRun += simulationIterator.getCurrentIteration() - firstStep; 
+            return simulationIterator.getCurrentIteration() - firstStep; 
+        }
+        if (m_adjointConvergenceMonitor != null){m_adjointConvergenceMonitor.reset();}
+        if (m_adjointWatchdog != null){m_adjointWatchdog.reset();}
+        int remainingSteps = numberSteps; 
+        while (remainingSteps > 0){
+            int chunk = Math.min(m_numberAdjointStepsPerChunk, remainingSteps); 
+            int startStep = simulationIterator.getCurrentIteration(); 
+            int maxSteps = increaseMaxSteps(chunk);
+            simulationIterator.run(adjointRunnableSolver);
+            int currentStep = simulationIterator.getCurrentIteration(); 
+            remainingSteps -= chunk; 
+            if (m_adjointConvergenceMonitor != null){
+                m_adjointConvergenceMonitor.record(currentStep - startStep, 
+                        getResidualValues(m_adjointConvergenceMonitor.getResidualNames()), 
+                        getReportValues(getExistingReportNames(m_adjointConvergenceMonitor.getReportNames()))); // missing reports skipped
+            }
+            if (currentStep < maxSteps){ // stopped by a Star-CCM+ stopping criterion
+                m_adjointStopReason = "Monitor"; 
+                break; 
+            }
+            if (isWarmStart){
+                if (m_adjointConvergenceMonitor != null && m_adjointSwitchResidualDrop > 0.0 && m_adjointConvergenceMonitor.getResidualDrop() >= m_adjointSwitchResidualDrop){
+                    m_toolbox.print("Adjoint switched to 2nd-order after " + (currentStep - firstStep) + " steps");
+                    break; 
+                }
+            }
+            else if (m_adjointConvergenceMonitor != null && m_adjointConvergenceMonitor.isConverged()){
+                m_adjointStopReason = m_adjointConvergenceMonitor.getStopReason(); 
+                break; 
+            }
+            if (m_adjointWatchdog != null){
+                String failure = m_adjointWatchdog.check(getResidualValues(m_adjointWatchdog.getResidualNames()), 
+                        getReportValues(getExistingReportNames(m_adjointWatchdog.getReportNames()))); // NaN of a missing report is not a failure
+                if (!failure.isEmpty()){
+                    m_adjointStopReason = failure; 
+                    m_toolbox.print("Adjoint solver aborted after " + (currentStep - firstStep) + " steps");
+                    break; 
+                }
+            }
+        }
+        m_numberAdjointStepsRun += simulationIterator.getCurrentIteration() - firstStep; 
+        return simulationIterator.getCurrentIteration() - firstStep; 
+    }
+    
+    // This method runs the adjoint solver (see runAdjointWithWarmStart), once 
+    // the cost functions and tolerance are set
+    private void runAdjointSolver(int number1stOrderGMRESSteps, int number2ndOrderGMRESSteps){
         // Disable primal solver stopping criterion (otherwise adjoint won't run)
         enableMonitorIterationStoppingCriterion(false);
+        long start = System.nanoTime(); 
 
         // Get adjoint solver 
         SolverManager solverManager = m_simulation.getSolverManager(); 
         AdjointFlowSolver adjointFlowSolver = solverManager.getSolver(AdjointFlowSolver.class); 
         AdjointRunnableSolver adjointRunnableSolver = adjointFlowSolver.getAdjointRunnableSolver();
-        AdjointMeshSolver adjointMeshSolver = m_simulation.getSolverManager().getSolver(AdjointMeshSolver.class);
         
         // Unfreeze solver 
         adjointRunnableSolver.setFrozen(false);
 
-        // Clear previous adjoint solution (if any)
-        clearAdjoint();
+        // Clear previous adjoint solution (unless restarting from it)
+        boolean isWarmRestart = m_isAdjointWarmRestart && hasAdjointSolution();
+        if (!isWarmRestart){clearAdjoint();}
 
         // Get objects
         PhysicsContinuum physicsContinuum_0 = ((PhysicsContinuum) m_simulation.getContinuumManager().getContinuum(m_physicsContinuumName));
@@ -217,59 +876,105 @@ public class Solver extends Toolbox {
         // Set Courant number
         adjointFlowSolver.setAdjointCFL(m_adjointCFL);
 
-        // Run adjoint
-        if (number1stOrderGMRESSteps == 0 || number2ndOrderGMRESSteps == 0){
+        // Restart from previous adjoint solution (no warm-start needed)
+        if (isWarmRestart){
+            boolean isSingleScheme = number1stOrderGMRESSteps == 0 || number2ndOrderGMRESSteps == 0;
+            if (!isSingleScheme){adjointFlowModel_0.getUpwindOption().setSelected(FlowUpwindOption.Type.SECOND_ORDER);}
+            runAdjointSteps(adjointRunnableSolver, number1stOrderGMRESSteps + number2ndOrderGMRESSteps, false);
+            if (isAdjointFailed()){
+                m_toolbox.print("Adjoint restart failed (" + m_adjointStopReason + "), rerunning from cleared solution");
+                clearAdjoint();
+                isWarmRestart = false; 
+            }
+        }
+
+        // Run adjoint (from cleared solution)
+        if (!isWarmRestart && (number1stOrderGMRESSteps == 0 || number2ndOrderGMRESSteps == 0)){
             int numberSteps = Math.max(number1stOrderGMRESSteps, number2ndOrderGMRESSteps);
-            increaseMaxSteps(numberSteps);
-            m_simulation.getSimulationIterator().run(adjointRunnableSolver);
+            runAdjointSteps(adjointRunnableSolver, numberSteps, false);
         }
-        else {
+        else if (!isWarmRestart) {
 
             // Use GMRES for difficult to converge simulations
             adjointFlowSolver_0.getAccelerationOption().setSelected(AdjointAccelerationOption.Type.RESTARTED_GMRES);
 
             // Warm-start using 1st-order scheme
             adjointFlowModel_0.getUpwindOption().setSelected(FlowUpwindOption.Type.FIRST_ORDER);
-            increaseMaxSteps(number1stOrderGMRESSteps);
-            m_simulation.getSimulationIterator().run(adjointRunnableSolver);
+            int numberSteps = runAdjointSteps(adjointRunnableSolver, number1stOrderGMRESSteps, true);
 
             // Run using 2nd-order scheme
             adjointFlowModel_0.getUpwindOption().setSelected(FlowUpwindOption.Type.SECOND_ORDER);
-            increaseMaxSteps(number2ndOrderGMRESSteps);
-            m_simulation.getSimulationIterator().run(adjointRunnableSolver);
+            if (!isAdjointFailed()){
+                runAdjointSteps(adjointRunnableSolver, number2ndOrderGMRESSteps + Math.max(0, number1stOrderGMRESSteps - numberSteps), false);
+            }
+        }
+        m_toolbox.print("Adjoint solver stopped: " + m_adjointStopReason);
+        m_toolbox.setGlobalScalarParameter("AdjointSolution", isAdjointFailed() ? 0.0 : 1.0);
+        m_computedAdjointProducts = new HashSet(); 
+        if (isAdjointFailed()){ // no sensitivities from a failed adjoint
+            m_gradientAccuracy = Double.NaN; 
+            adjointRunnableSolver.setFrozen(true);
+            m_adjointSeconds += (System.nanoTime() - start)*1e-9; 
+            return; 
         }
+        m_gradientAccuracy = m_adjointConvergenceMonitor == null ? Double.NaN : m_adjointConvergenceMonitor.getAsymptoticSpread(); 
+        m_toolbox.print("Adjoint sensitivity accuracy: " + m_gradientAccuracy);
 
-        // Compute sensitivities
-        adjointMeshSolver.computeMeshSensitivity();
-        adjointFlowSolver.computeAdjointErrorEstimates();
+        // Compute sensitivities (only those asked for; others on demand)
+        for (String product: m_adjointProducts == null ? Arrays.asList("MeshSensitivity", "ErrorEstimates") : m_adjointProducts){
+            computeAdjointProduct(product);
+        }
         
         // Freeze
         adjointRunnableSolver.setFrozen(true);
+        m_adjointSeconds += (System.nanoTime() - start)*1e-9; 
     } 
     
-    // This method clears the current solution, but does not reset the mesh
-    public void clearSolutionButDoNotResetMesh(){
-        Solution solution = m_simulation.getSolution(); 
-        solution.clearSolution(Solution.Clear.History, 
-                               Solution.Clear.Fields, 
-                               Solution.Clear.AdjointFlow);
+    // This method returns the CSV column starting with the field name (null if
+    // none), since exported columns include units
+    private String getColumnName(String[] header, String fieldName){
+        for (String column: header){
+            String name = column.trim().replace("\"", ""); 
+            if (name.equals(fieldName) || name.startsWith(fieldName + " ")){return name;}
+        }
+        return null; 
     }
     
-    // This method clears histories but not the solution
-    public void clearHistories(){
-        Solution solution = m_simulation.getSolution();
-        solution.clearSolution(Solution.Clear.History);
+    // This method returns the latest value of each residual to monitor
+    private double[] getResidualValues(ArrayList<String> names){
+        double[] values = new double[names.size()]; 
+        for (int i = 0; i < values.length; i++){values[i] = m_toolbox.getResidualValue(names.get(i));}
+        return values; 
     }
-
-    // This method clears the adjoint solution
-    public void clearAdjoint(){
-        Solution solution = m_simulation.getSolution();
-        solution.clearSolution(Solution.Clear.AdjointFlow);
+    
+    // This method returns the largest of the latest residuals (NaN if any is)
+    private double getMaxResidualValue(ArrayList<String> names){
+        double max = 0.0; 
+        for (double value: getResidualValues(names)){
+            if (Double.isNaN(value)){return Double.NaN;}
+            max = Math.max(max, value); 
+        }
+        return max; 
     }
     
-    // -------------------------------------------------------------------------
-    // ---------------------- P R I V A T E   M E T H O D S --------------------
-    // -------------------------------------------------------------------------
+    // This method returns the latest value of each report to monitor (NaN if 
+    // the report does not exist)
+    private double[] getReportValues(ArrayList<String> names){
+        double[] values = new double[names.size()]; 
+        for (int i = 0; i < values.length; i++){
+            values[i] = m_simulation.getReportManager().has(names.get(i)) ? m_toolbox.getReportValue(names.get(i)) : Double.NaN;
+        }
+        return values; 
+    }
+
+    // This method returns the names of the reports that exist (in order)
+    private ArrayList<String> getExistingReportNames(ArrayList<String> names){
+        ArrayList<String> existingNames = new ArrayList(); 
+        for (String name: names){
+            if (m_simulation.getReportManager().has(name)){existingNames.add(name);}
+        }
+        return existingNames; 
+    }
 
     // This method enables or disables monitor stopping criterion
     private void enableMonitorIterationStoppingCriterion(boolean flag) {
@@ -282,8 +987,9 @@ public class Solver extends Toolbox {
         }
     }
 
-    // This method increases the maximum number of solver steps
-    private void increaseMaxSteps(int numberSteps){
+    // This method increases the maximum number of solver steps (and returns 
+    // the new maximum)
+    private int increaseMaxSteps(int numberSteps){
         
         SolverStoppingCriterionManager solverStoppingCriterionManager; 
         SolverStoppingCriterion solverStoppingCriterion;
@@ -298,5 +1004,6 @@ public class Solver extends Toolbox {
         int currentSteps = simulationIterator.getCurrentIteration();
         int maxSteps = numberSteps + currentSteps;
         stepStoppingCriterion.setMaximumNumberSteps(maxSteps);
+        return maxSteps; 
     }
 }
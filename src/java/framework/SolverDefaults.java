@@ -0,0 +1,91 @@
+/*
+ * The purpose of this class is to keep, in one place, the default solver
+ * controls shared by the macros (convergence monitors, watchdogs, CFL
+ * schedule), so that the macros do not each carry their own copy. A macro
+ * applies the defaults, then overrides only what differs for it, e.g.
+ *
+ *      SolverDefaults.apply(cfd.solver);
+ *      cfd.solver.getCFLSchedule().setMaximumCFL(20.0);    <---- override
+ *      cfd.solver.setWatchdog(null);                       <---- turn off
+ *
+ * Defaults (residual and report names are those of the 2D airfoil setup):
+ *
+ *  Convergence     residuals drop 6 orders, or CD, CL change less than 1e-5
+ *                  (relative) over 5 checks, checked every 20 steps
+ *  Watchdog        NaN, residual growth of 1e3 over its smallest value,
+ *                  |CD| or |CL| above 10, or residuals dropping less than
+ *                  0.1 orders over 10 checks
+ *  CFL schedule    "Adaptive", from the primal CFL up to 50, grown by 1.5
+ *                  per check while residuals drop, halved on growth
+ *  Adjoint         adjoint residuals drop 4 orders (2 to switch from 1st- to
+ *  convergence     2nd-order), or sensitivities change less than 1e-3 over
+ *                  3 checks, checked every 5 steps
+ *  Adjoint         NaN, or adjoint residual growth of 1e2 over its smallest
+ *  watchdog        value
+ */
+
+package framework;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ *
+ * @author shb
+ */
+public class SolverDefaults {
+
+    // -------------------------------------------------------------------------
+    // ---------------------- P U B L I C   M E T H O D S ----------------------
+    // -------------------------------------------------------------------------
+
+    // This method sets the default convergence monitors, watchdogs and CFL
+    // schedule on the solver (each can then be retrieved and overridden)
+    public static void apply(Solver solver){
+
+        // Primal convergence (primal steps become maxima)
+        ConvergenceMonitor convergenceMonitor = new ConvergenceMonitor();
+        convergenceMonitor.setResidualNames(new ArrayList(Arrays.asList("Continuity","X-momentum","Y-momentum","Energy"))); // as in residual plot
+        convergenceMonitor.setReportNames(new ArrayList(Arrays.asList("CD","CL")));
+        convergenceMonitor.setRequiredResidualDrop(6.0); // orders of magnitude
+        convergenceMonitor.setAsymptoticWindow(5); // number of checks
+        convergenceMonitor.setAsymptoticTolerance(1e-5); // relative change of CD, CL over window
+        solver.setNumberStepsPerChunk(20); // steps between checks
+        solver.setConvergenceMonitor(convergenceMonitor);
+
+        // Primal watchdog (primal aborted on NaN, divergence, or stall; evaluation marked as failed)
+        Watchdog watchdog = new Watchdog();
+        watchdog.setResidualNames(convergenceMonitor.getResidualNames());
+        watchdog.setReportNames(convergenceMonitor.getReportNames());
+        watchdog.setDivergenceRatio(1e3); // residual growth over its smallest value
+        watchdog.setReportLimit(10.0); // largest |CD|, |CL|
+        watchdog.setStallWindow(10); // number of checks
+        watchdog.setStallResidualDrop(0.1); // orders of magnitude the residual must drop over window
+        solver.setWatchdog(watchdog);
+
+        // CFL schedule (primal CFL ramps up while residuals drop)
+        CFLSchedule cflSchedule = new CFLSchedule("Adaptive"); // "Linear", "Geometric", "Adaptive"
+        cflSchedule.setResidualNames(convergenceMonitor.getResidualNames());
+        cflSchedule.setMaximumCFL(50.0);
+        cflSchedule.setGrowthFactor(1.5); // per chunk
+        cflSchedule.setBackoffFactor(0.5); // on residual growth
+        solver.setCFLSchedule(cflSchedule);
+
+        // Adjoint convergence (adjoint steps become maxima)
+        ConvergenceMonitor adjointConvergenceMonitor = new ConvergenceMonitor();
+        adjointConvergenceMonitor.setResidualNames(new ArrayList(Arrays.asList("Adjoint Continuity","Adjoint X-momentum","Adjoint Y-momentum","Adjoint Energy"))); // as in adjoint residual plot
+        adjointConvergenceMonitor.setReportNames(new ArrayList(Arrays.asList("Gradient of CD w.r.t. angle-of-attack","Gradient of CL w.r.t. angle-of-attack"))); // sensitivities (missing ones skipped; Evaluator tracks those of the cost functions solved)
+        adjointConvergenceMonitor.setRequiredResidualDrop(4.0); // orders of magnitude (2nd-order)
+        adjointConvergenceMonitor.setAsymptoticWindow(3); // number of checks
+        adjointConvergenceMonitor.setAsymptoticTolerance(1e-3); // relative change of sensitivities over window
+        solver.setAdjointSwitchResidualDrop(2.0); // orders of magnitude (1st-order, before switching to 2nd-order)
+        solver.setNumberAdjointStepsPerChunk(5); // steps between checks
+        solver.setAdjointConvergenceMonitor(adjointConvergenceMonitor);
+
+        // Adjoint watchdog (adjoint aborted on NaN or divergence; restart cleared and rerun, no gradients if it fails again)
+        Watchdog adjointWatchdog = new Watchdog();
+        adjointWatchdog.setResidualNames(adjointConvergenceMonitor.getResidualNames());
+        adjointWatchdog.setDivergenceRatio(1e2); // residual growth over its smallest value
+        solver.setAdjointWatchdog(adjointWatchdog);
+    }
+}
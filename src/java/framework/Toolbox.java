@@ -158,6 +158,15 @@ public class Toolbox {
         physicsContinuum.enable(AdjointFlowModel.class);
      }
      
+     // This method includes (or excludes) an adjoint cost function in the next
+     // adjoint solve. Excluded cost functions keep their previous solution.
+     public void activateAdjointCostFunction(String costFunctionName, boolean flag){
+        AdjointCostFunctionManager adjointCostFunctionManager = m_simulation.getAdjointCostFunctionManager();
+        if (!adjointCostFunctionManager.has(costFunctionName)){return;}
+        AdjointCostFunction costFunction = adjointCostFunctionManager.getAdjointCostFunction(costFunctionName);
+        costFunction.setSolveAdjoint(flag);
+     }
+     
      // ---------------------- clear -----------------------------------------
      
      public void clearSolution() {
@@ -863,6 +872,15 @@ public class Toolbox {
         return costFunction.getID();     
     }
     
+    // --- This method returns the names of all adjoint cost functions
+    public ArrayList<String> getAdjointCostFunctionNames(){
+        ArrayList<String> names = new ArrayList(); 
+        for (AdjointCostFunction costFunction: m_simulation.getAdjointCostFunctionManager().getObjects()){
+            names.add(costFunction.getPresentationName()); 
+        }
+        return names; 
+    }
+    
     // --- This method returns the report type (force or moment) 
     public String getCostFunctionType(String functionName){
         AdjointCostFunctionManager adjointCostFunctionManager = m_simulation.getAdjointCostFunctionManager();
@@ -878,6 +896,15 @@ public class Toolbox {
         return type; 
     }
     
+    // This method returns the value of a global scalar parameter (or the 
+    // default value if there is no such parameter)
+    public double getGlobalScalarParameter(String parameterName, double defaultValue){
+        GlobalParameterManager globalParameterManager = m_simulation.get(GlobalParameterManager.class);
+        if (!globalParameterManager.has(parameterName)){return defaultValue;}
+        ScalarGlobalParameter scalarGlobalParameter = ((ScalarGlobalParameter) globalParameterManager.getObject(parameterName));
+        return scalarGlobalParameter.getQuantity().getRawValue();
+    }
+    
     // This method returns the data contained in the specified gradient table
     public TableData getGradientTableData(String functionName, String controlPointTableName){
        return getTableData("Gradient of " + functionName + " w.r.t. " + controlPointTableName); 
@@ -898,6 +925,16 @@ public class Toolbox {
         return type; 
     }
     
+    // This method returns the latest value of a residual monitor (e.g. 
+    // "Continuity"), or NaN if it does not exist or has no values yet
+    public double getResidualValue(String monitorName){
+        if (!m_simulation.getMonitorManager().has(monitorName)){return Double.NaN;}
+        Monitor monitor = m_simulation.getMonitorManager().getMonitor(monitorName);
+        double[] values = monitor.getAllYValues();
+        if (values == null || values.length == 0){return Double.NaN;}
+        return values[values.length-1];
+    }
+    
    // This method returns the value from an analysis report
     public double getReportValue(String reportName){
        ReportManager reportManager = m_simulation.getReportManager();
@@ -977,6 +1014,13 @@ public class Toolbox {
     
     // ---------------------- setting ------------------------------------------
     
+    // This method sets a global scalar parameter, creating it if needed (used
+    // to store state in the simulation, so that it is saved with it)
+    public void setGlobalScalarParameter(String parameterName, double value){
+        createGlobalScalarParameter(parameterName, value); // does nothing if it exists
+        updateGlobalScalarParameter(parameterName, value);
+    }
+    
     // This method set a specified boundary belonging to a region to "farfield" type
      public void setBoundaryConditionFreestream(String regionName, String boundaryName){
         Region region = m_simulation.getRegionManager().getRegion(regionName);
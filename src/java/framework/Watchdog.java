@@ -0,0 +1,140 @@
+/*
+ * The purpose of this class is to detect, between iteration chunks, primal
+ * runs that are not going anywhere, so that they can be aborted early rather
+ * than run to the maximum number of steps. A run is failed when any of the
+ * following is detected (a check is off if not set):
+ *
+ *  "NaN"       a residual or report is NaN or infinite
+ *  "Diverged"  a residual grew by more than the specified ratio relative to
+ *              its smallest value in this run, or a report exceeds the
+ *              specified magnitude (e.g. |CD| > 10)
+ *  "Stalled"   the largest residual has not improved by the specified number
+ *              of orders of magnitude over a sliding window of samples
+ *
+ * The convergence monitor, if any, is checked first, so that a converged run
+ * whose residuals have flattened out is not reported as stalled.
+ *
+ * This class knows nothing about Star-CCM+: the solver feeds it values by
+ * calling check(), which returns the reason for failure ("" if none). Reports
+ * that do not exist are skipped by the solver (as for the convergence
+ * monitor), so only NaN residuals and NaN values of existing reports count.
+ */
+
+package framework;
+
+import java.util.ArrayList;
+
+/**
+ *
+ * @author shb
+ */
+public class Watchdog {
+
+    // --- Properties
+    private ArrayList<String> m_residualNames;
+    private ArrayList<String> m_reportNames;
+    private double m_divergenceRatio;       // (0 = off)
+    private double m_reportLimit;           // largest report magnitude (0 = off)
+    private int m_stallWindow;              // number of samples (0 = off)
+    private double m_stallResidualDrop;     // orders of magnitude over window
+    private double[] m_minResiduals;        // smallest residuals seen so far
+    private ArrayList<Double> m_history;    // log10 of largest residual, one per check()
+
+    // --- Constructor
+    public Watchdog(){
+        m_residualNames = new ArrayList();
+        m_reportNames = new ArrayList();
+        m_divergenceRatio = 0.0;
+        m_reportLimit = 0.0;
+        m_stallWindow = 0;
+        m_stallResidualDrop = 0.1;
+        reset();
+    }
+
+    // -------------------------------------------------------------------------
+    // ---------------------- P U B L I C   M E T H O D S ----------------------
+    // -------------------------------------------------------------------------
+
+    // This method clears the history (call before each run)
+    public final void reset(){
+        m_minResiduals = null;
+        m_history = new ArrayList();
+    }
+
+    // This method checks the values sampled after a chunk of steps (reports
+    // that exist only) and returns why the run should be aborted ("NaN",
+    // "Diverged", "Stalled") or ""
+    public String check(double[] residuals, double[] reports){
+        for (double value: residuals){
+            if (Double.isNaN(value) || Double.isInfinite(value)){return "NaN";}
+        }
+        for (double value: reports){
+            if (Double.isNaN(value) || Double.isInfinite(value)){return "NaN";}
+        }
+        if (m_minResiduals == null){m_minResiduals = residuals.clone();}
+        double max = 0.0;
+        for (int i = 0; i < residuals.length; i++){
+            m_minResiduals[i] = Math.min(m_minResiduals[i], residuals[i]);
+            max = Math.max(max, residuals[i]);
+        }
+        if (isDiverged(residuals, reports)){return "Diverged";}
+        if (residuals.length > 0 && max > 0.0){m_history.add(Math.log10(max));}
+        if (isStalled()){return "Stalled";}
+        return "";
+    }
+
+    // These methods set (get) the names of the residual monitors and reports
+    // to watch (the solver reads them in this order, skipping missing reports)
+    public void setResidualNames(ArrayList<String> names){m_residualNames = names;}
+    public ArrayList<String> getResidualNames(){return m_residualNames;}
+    public void setReportNames(ArrayList<String> names){m_reportNames = names;}
+    public ArrayList<String> getReportNames(){return m_reportNames;}
+
+    // This method sets (gets) the divergence criterion: ratio of any residual
+    // to its smallest value in this run
+    public void setDivergenceRatio(double d){m_divergenceRatio = d;}
+    public double getDivergenceRatio(){return m_divergenceRatio;}
+
+    // This method sets (gets) the largest magnitude a report may take
+    public void setReportLimit(double d){m_reportLimit = d;}
+    public double getReportLimit(){return m_reportLimit;}
+
+    // This method sets (gets) the stall criterion: the largest residual must
+    // improve by the given orders of magnitude over the last n samples
+    public void setStallWindow(int n){m_stallWindow = n;}
+    public int getStallWindow(){return m_stallWindow;}
+    public void setStallResidualDrop(double d){m_stallResidualDrop = d;}
+    public double getStallResidualDrop(){return m_stallResidualDrop;}
+
+    // -------------------------------------------------------------------------
+    // ---------------------- P R I V A T E   M E T H O D S --------------------
+    // -------------------------------------------------------------------------
+
+    // This method returns true if any residual grew too much, or any report
+    // is out of range
+    private boolean isDiverged(double[] residuals, double[] reports){
+        if (m_divergenceRatio > 0.0){
+            for (int i = 0; i < residuals.length; i++){
+                if (residuals[i] > m_divergenceRatio*m_minResiduals[i]){return true;}
+            }
+        }
+        if (m_reportLimit > 0.0){
+            for (double value: reports){
+                if (Math.abs(value) > m_reportLimit){return true;}
+            }
+        }
+        return false;
+    }
+
+    // This method returns true if the best residual within the sliding window
+    // is not enough of an improvement over the best one before it
+    private boolean isStalled(){
+        int n = m_history.size();
+        if (m_stallWindow <= 0 || n <= m_stallWindow){return false;}
+        double bestBefore = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < n - m_stallWindow; i++){bestBefore = Math.min(bestBefore, m_history.get(i));}
+        double bestWithin = Double.POSITIVE_INFINITY;
+        for (int i = n - m_stallWindow; i < n; i++){bestWithin = Math.min(bestWithin, m_history.get(i));}
+        return bestBefore - bestWithin < m_stallResidualDrop;
+    }
+}
@@ -7,13 +7,22 @@
  *  Venditti et al., "Grid Adaptation for Functional Outputs: Application to 2D 
  *  Inviscid Flows," Journal of Computational Physics, 2002, Vol 176, pp. 40-69 
  * 
- * Last Update: 5/13/2017
+ * Once done, a record of the case (report values, number of cells, steps run,
+ * wall times, convergence status) is appended to the result store, which 
+ * drivers read instead of the log (see ResultStore): 
+ *
+ *      -Dcase_id=<id>      <---- id of the record (default: simulation name)
+ *      -Dresults=<file>    <---- result store (default: Results.csv)
+ *
+ * Last Update: 10/16/2026
  */
 
 package macro;
 
 // Starccm+ packages 
 import framework.*;
+import java.io.*;
+import java.util.*;
 import star.common.*;
 /**
  *
@@ -25,16 +34,23 @@ public class AdaptMesh extends StarMacro {
     private CFDModel cfd;
     private MeshAdaptation adapt;
     private int numberAdapationLevels;
+    private int number1stOrderPrimalSteps;
     private int numberPrimalSteps;
     private int numberAdjointSteps;
     private int number1stOrderGMRESAdjointSteps;
     private int number2ndOrderGMRESAdjointSteps;
     private String saveAs;
     private boolean isSave;
+    private SavePolicy savePolicy;
     private boolean isWarmStart;
+    private String resultsFilepath;
+    private String caseId;
+    private ArrayList<String> resultReportNames;
+    private long startTime;
     
     public void execute() {
         // --- Create objects 
+        startTime = System.nanoTime();
         simulation = getActiveSimulation();
         cfd = new CFDModel(simulation);
         adapt = new MeshAdaptation(simulation); 
@@ -46,6 +62,7 @@ public class AdaptMesh extends StarMacro {
         // --- Perform mesh adaptation
         if (isWarmStart){
             adapt.runWithWarmStart( numberAdapationLevels,
+                                    number1stOrderPrimalSteps,
                                     numberPrimalSteps,
                                     number1stOrderGMRESAdjointSteps,
                                     number2ndOrderGMRESAdjointSteps);
@@ -56,6 +73,12 @@ public class AdaptMesh extends StarMacro {
             if (!(saveAs == null)){cfd.save(saveAs);}
             else {cfd.save();}
         }
+
+        // --- Results
+        ResultStore store = new ResultStore(resultsFilepath);
+        adapt.solver.putResult(store, resultReportNames);
+        store.put("WallSeconds", (System.nanoTime() - startTime)*1e-9);
+        store.append(caseId);
     }
     
     // ----------------------- USER INPUTS START HERE --------------------------
@@ -63,12 +86,26 @@ public class AdaptMesh extends StarMacro {
         isSave = true;
         isWarmStart = true;
         // - Solver - 
+        number1stOrderPrimalSteps = 500; // max <-- warm-start on each new mesh (0 = 2nd-order from the start)
         numberPrimalSteps  = 2000;
         numberAdjointSteps = 2000;
         number1stOrderGMRESAdjointSteps = 50;
         number2ndOrderGMRESAdjointSteps = 50;
         adapt.setPrimalCFL(10.0);
         adapt.setAdjointCFL(50.0);
+        // - Convergence, watchdogs, CFL schedule - (see SolverDefaults; override here, or set to null to turn off)
+        SolverDefaults.apply(adapt.solver);
+        // - Primal warm-start - (grid sequencing, then 1st-order until residuals have dropped)
+        adapt.setPrimalSwitchResidualDrop(2.0); // orders of magnitude (1st-order, before switching to 2nd-order)
+        adapt.setGridSequencingLevels(8); // coarse levels used to initialize (0 = off)
+        // - Save policy - (intermediate levels; final result saved as usual, see isSave)
+        savePolicy = new SavePolicy("Never"); // "Always", "Never", "EveryN" (levels)
+        savePolicy.setStripHistories(false); // clear residual and monitor histories before saving
+        adapt.setSavePolicy(savePolicy);
+        // - Results - (one record per run; -Dresults, -Dcase_id override)
+        resultsFilepath = simulation.getSessionDir() + File.separator + "Results.csv";
+        caseId = simulation.getPresentationName();
+        resultReportNames = new ArrayList(Arrays.asList("CL","CD","CM")); // NaN if missing
         // - Mesh Adaptation - 
         numberAdapationLevels = 3;
         adapt.setAdaptMaxSizeChange(4.0);
@@ -148,5 +185,11 @@ public class AdaptMesh extends StarMacro {
             saveAs = save;
             isSave = true;
         }
+
+        String case_id = System.getProperty("case_id");
+        if (!(case_id == null)){caseId = case_id;}
+
+        String results = System.getProperty("results");
+        if (!(results == null)){resultsFilepath = results;}
     }
 }
\ No newline at end of file
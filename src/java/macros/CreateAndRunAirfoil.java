@@ -15,6 +15,7 @@ package macro;
 import framework.*;
 import star.common.*;
 import java.io.*;
+import java.util.*;
 /**
  *
  * @author shb
@@ -26,6 +27,7 @@ public class CreateAndRunAirfoil extends StarMacro {
     private String airfoilCoordinatesCSVFile;
     private String controlPointCSVFile;
     private boolean isInviscid;
+    private int numberOf1stOrderPrimalSteps;
     private int numberOfPrimalSteps;
     private int numberOfAdjointSteps;
     
@@ -49,7 +51,7 @@ public class CreateAndRunAirfoil extends StarMacro {
 
         // --- Mesh and run
         airfoil.generateMesh();
-        airfoil.runPrimalSolver(numberOfPrimalSteps);
+        airfoil.runPrimalSolverWithWarmStart(numberOf1stOrderPrimalSteps,numberOfPrimalSteps);
         airfoil.runAdjointSolver(numberOfAdjointSteps);
 
         // --- Save
@@ -62,7 +64,8 @@ public class CreateAndRunAirfoil extends StarMacro {
         airfoilCoordinatesCSVFile = "AirfoilXYZ.csv";
         controlPointCSVFile = "ControlPointXYZ.csv";
         isInviscid = false; 
-        numberOfPrimalSteps = 2000; 
+        numberOf1stOrderPrimalSteps = 500; // max <-- warm-start (0 = 2nd-order from the start)
+        numberOfPrimalSteps = 2000; // max (plus unused 1st-order steps)
         numberOfAdjointSteps = 2000; 
         // - Names - 
         airfoil.setAirfoilPartName("Airfoil");
@@ -91,6 +94,12 @@ public class CreateAndRunAirfoil extends StarMacro {
         // - Solver - 
         airfoil.setPrimalCFL(10.0);
         airfoil.setAdjointCFL(25.0);
+        airfoil.setGridSequencingLevels(8); // coarse levels used to initialize (0 = freestream initialization)
+        airfoil.setPrimalSwitchResidualDrop(2.0); // orders of magnitude (1st-order, before switching to 2nd-order)
+        ConvergenceMonitor convergenceMonitor = new ConvergenceMonitor(); // (primal steps become maxima)
+        convergenceMonitor.setResidualNames(new ArrayList(Arrays.asList("Continuity","X-momentum","Y-momentum","Energy"))); // as in residual plot
+        convergenceMonitor.setRequiredResidualDrop(6.0); // orders of magnitude (2nd-order)
+        airfoil.setConvergenceMonitor(convergenceMonitor);
         // - Reports - 
         airfoil.setMomentOrigin(0.25);
     }
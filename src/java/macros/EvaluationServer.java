@@ -0,0 +1,241 @@
+/*
+ * This macro does the same job as RunOptimizationMacro, but instead of running
+ * once and exiting, it keeps the simulation loaded and serves evaluation
+ * requests from the optimizer over a local socket until told to stop. This
+ * way, license checkout, JVM startup, loading the simulation, and partitioning
+ * are paid once per optimization rather than once per evaluation.
+ *
+ * The design variable information (names, bounds, control point tables, etc.)
+ * is read once from IndependentVariables.csv at startup, and the requested
+ * functions are read from DependentVariables.csv, as usual. After that, the
+ * protocol is one line per request (text, space separated):
+ *
+ *      EVALUATE <adj_flag> <x1> <x2> ... <xn>  <---- evaluate design x
+ *      TOLERANCE <grad_tol>                    <---- relative accuracy the
+ *                                                    gradients need from now
+ *                                                    on (0 = fully converged)
+ *      STOP                                    <---- save and exit
+ *
+ * The reply to EVALUATE is the updated DependentVariables.csv table (which is
+ * also written to file), one CSV line at a time, followed by a line "END". If
+ * the request could not be evaluated, the reply is a line "ERROR <message>".
+ * The reply to TOLERANCE is "OK". The reply to STOP is "BYE".
+ *
+ * The port is taken from the command line (e.g. -jvmargs -Dport=50505).
+ *
+ * Last Update: 10/16/2026
+ */
+
+package macro;
+
+// Starccm+ packages
+import framework.*;
+import java.io.*;
+import java.util.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import star.common.*;
+/**
+ *
+ * @author shb
+ */
+public class EvaluationServer extends StarMacro {
+
+    // Class objects
+    private Simulation  sim;
+    private CFDModel    cfd;
+    private Problem     problem;
+    private Evaluator   evaluator;
+
+    // Class variables
+    private String independentVariableFilepath;
+    private String dependentVariableFilepath;
+    private String evaluationCacheFilepath;
+    private String snapshotDirectory;
+    private long snapshotDiskBudget;
+    private double designTolerance;
+    private int numberPrimalSteps;
+    private int number1stOrderGMRESAdjointSteps;
+    private int number2ndOrderGMRESAdjointSteps;
+    private boolean isUseEvaluationCache;
+    private boolean isUseSnapshots;
+    private boolean isParallelAdjoint;
+    private ParallelAdjoint parallelAdjoint;
+    private String fluidRegionName;
+    private String freestreamBoundaryName;
+    private String PhysicsContinuumName;
+    private boolean isFlow2D;
+    private int port;
+    private int idleTimeout;
+
+
+    public void execute() {
+
+        // --- Create objects
+        sim = getActiveSimulation();
+        cfd = new CFDModel(sim);
+        problem = new Problem(cfd);
+
+        // --- Read user inputs
+        setUserInputs();
+        cfd.setFluidRegionName(fluidRegionName);
+        cfd.setFreestreamBoundaryName(freestreamBoundaryName);
+
+        // --- Apply flight conditions by linking global parameters to IC, BC, reports, etc.
+        cfd.set2DFlag(isFlow2D);
+        cfd.flightCondition.linkGlobalParameters(fluidRegionName,freestreamBoundaryName,PhysicsContinuumName);
+
+        // --- Design variable information (values are overwritten by each request)
+        checkForCommandLineArgs(); // overrides user inputs
+        problem.loadIndependentVariables(independentVariableFilepath);
+        if (isUseEvaluationCache) {
+            problem.setEvaluationCache(new EvaluationCache(evaluationCacheFilepath,designTolerance));
+        }
+        if (isUseSnapshots) {
+            cfd.setSnapshotLibrary(new SnapshotLibrary(snapshotDirectory,snapshotDiskBudget));
+        }
+        evaluator = new Evaluator(sim, cfd, problem, independentVariableFilepath, dependentVariableFilepath);
+        evaluator.setDesignTolerance(designTolerance);
+        evaluator.setNumberPrimalSteps(numberPrimalSteps);
+        evaluator.setNumberAdjointSteps(number1stOrderGMRESAdjointSteps,number2ndOrderGMRESAdjointSteps);
+        if (isParallelAdjoint) {evaluator.setParallelAdjoint(parallelAdjoint);}
+
+        // --- Serve requests (localhost only)
+        try (ServerSocket server = new ServerSocket(port, 1, InetAddress.getLoopbackAddress())) {
+            server.setSoTimeout(1000*idleTimeout); // give up if the optimizer went away
+            sim.println("EvaluationServer: listening on port " + server.getLocalPort());
+            boolean isStop = false;
+            while (!isStop) {
+                try (Socket client = server.accept();
+                     BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+                     PrintWriter out = new PrintWriter(new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8))) {
+                    client.setSoTimeout(1000*idleTimeout);
+                    String request;
+                    while (!isStop && (request = in.readLine()) != null) {
+                        try {
+                            isStop = serve(request.trim(), out);
+                        }
+                        catch (RuntimeException e){ // e.g. Star-CCM+ error: reply and keep serving
+                            sim.println("EvaluationServer: caught " + e + " serving " + request);
+                            out.println("ERROR " + String.valueOf(e).replace('\n', ' '));
+                        }
+                        out.flush();
+                    }
+                }
+                catch (SocketTimeoutException e){
+                    sim.println("EvaluationServer: no request for " + idleTimeout + " s, stopping");
+                    isStop = true;
+                }
+            }
+        }
+        catch (IOException e){
+            sim.println("Caught IOException: " + e.getMessage());
+        }
+        finally {
+            cfd.save();
+        }
+    }
+
+    // ----------------------- USER INPUTS START HERE --------------------------
+    private void setUserInputs(){
+        // - Files -
+        independentVariableFilepath = sim.getSessionDir() + File.separator + "IndependentVariables.csv";
+        dependentVariableFilepath   = sim.getSessionDir() + File.separator + "DependentVariables.csv";
+        evaluationCacheFilepath     = sim.getSessionDir() + File.separator + "EvaluationCache.csv"; // delete if setup changes
+        snapshotDirectory           = sim.getSessionDir() + File.separator + "Snapshots"; // delete if setup changes
+        // - Server -
+        port = 50505; // overriden by -Dport
+        idleTimeout = 3600; // s (stop if no request within this time)
+        // - Flags -
+        isFlow2D = true;
+        isUseEvaluationCache = true; // answer repeat designs from file, without running
+        designTolerance = 1e-12; // designs closer than this are the same design
+        isUseSnapshots = false; // start new designs from nearest converged design (e.g. multi-start), rather than last one
+        snapshotDiskBudget = 2000L*1024*1024; // bytes (least recently used deleted beyond)
+        cfd.flightCondition.setEulerFlag(true);
+        // - Names -
+        fluidRegionName = "Fluid";
+        freestreamBoundaryName = "Domain.Farfield";
+        PhysicsContinuumName = "Physics";
+        // - Solver -
+        numberPrimalSteps = 1000; // max
+        number1stOrderGMRESAdjointSteps = 25; // max <-- warm-start
+        number2ndOrderGMRESAdjointSteps = 15; // max (plus unused 1st-order steps)
+        cfd.solver.setPrimalCFL(10.0); // initial, if CFL schedule set
+        cfd.solver.setAdjointCFL(25.0);
+        // - Convergence, watchdogs, CFL schedule - (see SolverDefaults; override here, or set to null to turn off)
+        SolverDefaults.apply(cfd.solver);
+        cfd.solver.setAdjointWarmRestart(true); // start from previous design's adjoint (cleared if it fails)
+        cfd.solver.setAdjointProducts(new ArrayList()); // none after each run: mesh sensitivities computed when gradients are read, error estimates not needed
+        // - Parallel adjoint - (one Star-CCM+ process per cost function, on a copy of the converged primal)
+        isParallelAdjoint = false;
+        parallelAdjoint = new ParallelAdjoint("starccm+ -power -np {np} {machinefile} -classpath ASO.jar -jvmargs \"{jvmargs}\" -batch {macro} {sim}",
+                                              sim.getSessionDir() + File.separator + "RunAdjointMacro.java",
+                                              sim.getSessionDir() + File.separator + "Adjoint"); // working directory
+        parallelAdjoint.setNumberProcesses(4); // per cost function (if no machine file)
+        parallelAdjoint.setTimeout(120); // minutes, after which hung processes are killed (solved here instead)
+        if (System.getenv("PBS_NODEFILE") != null) {parallelAdjoint.setMachineFile(System.getenv("PBS_NODEFILE"));} // hosts split between cost functions
+        // - Flight conditions -
+        cfd.flightCondition.setDragCoefficientReportName("CD");
+        cfd.flightCondition.setLiftCoefficientReportName("CL");
+        cfd.flightCondition.setReferencePressure(101325.0); // Pa
+        cfd.flightCondition.setMachNumber(0.73);
+        cfd.flightCondition.setFreestreamDynamicViscosity(0.00001789); // Pa-s
+        cfd.flightCondition.setFreestreamSpeedOfSound(340.0); // m/s
+        cfd.flightCondition.setFreestreamGaugePressure(0.0); // Pa
+        cfd.flightCondition.setFreestreamTemperature(288.15); // K
+        cfd.flightCondition.setFreestreamDensity(1.225); // kg/m3
+        cfd.flightCondition.setAngleOfAttack(2.00); // deg // overriden by design variable "alpha" if present
+    }
+    // ----------------------- USER INPUTS END HERE ----------------------------
+
+    private void checkForCommandLineArgs(){
+        String port_arg = System.getProperty("port");
+        if (!(port_arg == null)){port = Integer.valueOf(port_arg);}
+    }
+
+    // This method handles one request and returns true if the server should stop
+    private boolean serve(String request, PrintWriter out){
+        String[] items = request.split("\\s+");
+        switch (items[0]) {
+            case "EVALUATE":
+                try {
+                    int n = problem.getNumberDesignVariables();
+                    if (items.length != n + 2){
+                        out.println("ERROR expected " + n + " design variables, got " + (items.length - 2));
+                        return false;
+                    }
+                    double[] x = new double[n];
+                    for (int i = 0; i < n; i++){x[i] = Double.parseDouble(items[i+2]);}
+                    problem.updateDesignVariables(x);
+                    evaluator.evaluate(Boolean.valueOf(items[1]));
+                    for (String line: Files.readAllLines(Paths.get(dependentVariableFilepath), StandardCharsets.UTF_8)){
+                        out.println(line);
+                    }
+                    out.println("END");
+                }
+                catch (NumberFormatException | IOException e){
+                    out.println("ERROR " + e.getMessage());
+                }
+                return false;
+            case "TOLERANCE":
+                try {
+                    double tolerance = Double.parseDouble(items[1]);
+                    cfd.solver.setGradientTolerance(tolerance);
+                    problem.setGradientTolerance(tolerance);
+                    out.println("OK");
+                }
+                catch (NumberFormatException | ArrayIndexOutOfBoundsException e){
+                    out.println("ERROR " + e.getMessage());
+                }
+                return false;
+            case "STOP":
+                out.println("BYE");
+                return true;
+            default:
+                out.println("ERROR unknown request " + items[0]);
+                return false;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,101 @@
+/*
+ * This macro times a few primal iterations of a simulation on however many
+ * processes it was launched with, so that the number of processes per case
+ * can be chosen from measurements rather than by hand (see DOEScheduler -tune
+ * and ThroughputModel). After some untimed steps (initialization, first
+ * iterations are slower), it times a fixed number of steps and prints one
+ * line, read by DOEScheduler from the log:
+ *
+ *      Throughput probe: cells=<n> steps=<k> seconds=<t>
+ *
+ * The steps are stepped, so the stopping criteria do not apply (a converged
+ * simulation is timed all the same). If fewer steps than requested were
+ * timed, it prints "Throughput probe failed: <reason>" instead and throws.
+ *
+ * The number of cells is taken from the "Element_Count" report (created if
+ * missing, as MeshAdaptation does). The following are taken from the command
+ * line (-jvmargs):
+ *
+ *      -Dsteps=<k>         <---- number of timed steps
+ *      -Dwarmup=<k>        <---- number of untimed steps before
+ *
+ * The simulation is not saved.
+ *
+ * Last Update: 10/16/2026
+ */
+
+package macro;
+
+// Starccm+ packages
+import framework.*;
+import star.common.*;
+/**
+ *
+ * @author shb
+ */
+public class ProbeThroughput extends StarMacro {
+
+    // Class objects
+    private Simulation  sim;
+    private Toolbox     toolbox;
+
+    // Class variables
+    private int numberWarmupSteps;
+    private int numberTimedSteps;
+    private String fluidRegionName;
+    private String elementCountReportName;
+
+
+    public void execute() {
+
+        // --- Create objects
+        sim = getActiveSimulation();
+        toolbox = new Toolbox(sim);
+
+        // --- Read user inputs
+        setUserInputs();
+        readCommandLineArgs(); // overrides user inputs
+
+        // --- Mesh size
+        if (!sim.getReportManager().has(elementCountReportName)){
+            toolbox.createElementCountReport(elementCountReportName, fluidRegionName);
+        }
+        double cells = toolbox.getReportValue(elementCountReportName);
+
+        // --- Untimed steps (stepped: stopping criteria ignored)
+        SimulationIterator simulationIterator = sim.getSimulationIterator();
+        if (numberWarmupSteps > 0){simulationIterator.step(numberWarmupSteps);}
+
+        // --- Timed steps (stepped: stopping criteria ignored)
+        int firstStep = simulationIterator.getCurrentIteration();
+        long start = System.nanoTime();
+        simulationIterator.step(numberTimedSteps);
+        double seconds = (System.nanoTime() - start)*1e-9;
+        int stepsRun = simulationIterator.getCurrentIteration() - firstStep;
+        if (stepsRun < numberTimedSteps){
+            String reason = "only " + stepsRun + " of " + numberTimedSteps + " steps run";
+            sim.println("Throughput probe failed: " + reason);
+            throw new RuntimeException("Throughput probe failed: " + reason);
+        }
+
+        sim.println("Throughput probe: cells=" + (long) cells + " steps=" + stepsRun + " seconds=" + seconds);
+    }
+
+    // ----------------------- USER INPUTS START HERE --------------------------
+    private void setUserInputs(){
+        // - Names -
+        fluidRegionName = "Fluid";
+        elementCountReportName = "Element_Count"; // same as MeshAdaptation
+        // - Solver -
+        numberWarmupSteps = 5;  // overriden by -Dwarmup
+        numberTimedSteps = 20;  // overriden by -Dsteps
+    }
+    // ----------------------- USER INPUTS END HERE ----------------------------
+
+    private void readCommandLineArgs(){
+        String steps = System.getProperty("steps");
+        if (!(steps == null)){numberTimedSteps = Integer.parseInt(steps);}
+        String warmup = System.getProperty("warmup");
+        if (!(warmup == null)){numberWarmupSteps = Integer.parseInt(warmup);}
+    }
+}
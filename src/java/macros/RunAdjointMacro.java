@@ -0,0 +1,138 @@
+/*
+ * This macro solves the adjoint for a single cost function on a copy of a
+ * simulation whose primal is already converged, and writes the gradient of
+ * that function w.r.t. the design variables to file (same format as the
+ * evaluation cache). It is not meant to be run by hand: it is launched by
+ * ParallelAdjoint, one process per cost function, from RunOptimizationMacro
+ * or EvaluationServer.
+ *
+ * The following are taken from the command line (-jvmargs):
+ *
+ *      -Dcost_function=<name>      <---- cost function to solve for
+ *      -Doutput=<file>             <---- where to write the gradient
+ *      -Dx=<x1>,<x2>,...,<xn>      <---- design the simulation was solved for
+ *      -Dinput=<file>              <---- IndependentVariables.csv (design
+ *                                        variable information)
+ *      -Dgrad_tol=<tol>            <---- relative accuracy the gradient needs
+ *                                        (optional; achieved accuracy is
+ *                                        written along with the gradient)
+ *
+ * The simulation is not saved (the copy is deleted afterwards).
+ *
+ * Last Update: 10/16/2026
+ */
+
+package macro;
+
+// Starccm+ packages
+import framework.*;
+import java.io.*;
+import java.util.*;
+import star.common.*;
+/**
+ *
+ * @author shb
+ */
+public class RunAdjointMacro extends StarMacro {
+
+    // Class objects
+    private Simulation  sim;
+    private CFDModel    cfd;
+    private Problem     problem;
+
+    // Class variables
+    private String independentVariableFilepath;
+    private String outputFilepath;
+    private String costFunctionName;
+    private double[] x;
+    private double designTolerance;
+    private int number1stOrderGMRESAdjointSteps;
+    private int number2ndOrderGMRESAdjointSteps;
+    private String fluidRegionName;
+    private String freestreamBoundaryName;
+    private String PhysicsContinuumName;
+    private boolean isFlow2D;
+
+
+    public void execute() {
+
+        // --- Create objects
+        sim = getActiveSimulation();
+        cfd = new CFDModel(sim);
+        problem = new Problem(cfd);
+
+        // --- Read user inputs
+        setUserInputs();
+        readCommandLineArgs(); // overrides user inputs
+        cfd.setFluidRegionName(fluidRegionName);
+        cfd.setFreestreamBoundaryName(freestreamBoundaryName);
+
+        // --- Apply flight conditions by linking global parameters to IC, BC, reports, etc.
+        cfd.set2DFlag(isFlow2D);
+        cfd.flightCondition.linkGlobalParameters(fluidRegionName,freestreamBoundaryName,PhysicsContinuumName);
+
+        // --- Design variable information (mesh is already morphed to x)
+        problem.loadIndependentVariables(independentVariableFilepath);
+        if (x != null) {problem.updateDesignVariables(x);}
+
+        // --- Adjoint (this cost function only)
+        cfd.solver.setAdjointCostFunctionNames(new ArrayList(Arrays.asList(costFunctionName)));
+        cfd.solver.getAdjointConvergenceMonitor().setReportNames(new ArrayList(Arrays.asList(cfd.createAlphaDerivativeReport(costFunctionName)))); // sensitivity to track
+        cfd.solver.runAdjointWithWarmStart(number1stOrderGMRESAdjointSteps,number2ndOrderGMRESAdjointSteps);
+
+        // --- Gradient (none if the adjoint failed: solved again by the macro that launched this one)
+        if (cfd.solver.isAdjointFailed()){return;}
+        EvaluationCache output = new EvaluationCache(outputFilepath,designTolerance);
+        output.putGradient(problem.getDesignVariables(), costFunctionName, cfd.getGradient(costFunctionName,problem.designVariables));
+        if (!Double.isNaN(cfd.getGradientAccuracy())){
+            output.putGradientAccuracy(problem.getDesignVariables(), costFunctionName, cfd.getGradientAccuracy());
+        }
+        try{output.commit();}
+        catch (IOException e){sim.println("Caught IOException: " + e.getMessage());}
+    }
+
+    // ----------------------- USER INPUTS START HERE --------------------------
+    private void setUserInputs(){
+        // - Files -
+        independentVariableFilepath = sim.getSessionDir() + File.separator + "IndependentVariables.csv"; // overriden by -Dinput
+        outputFilepath              = sim.getSessionDir() + File.separator + "AdjointGradient.csv"; // overriden by -Doutput
+        // - Flags -
+        isFlow2D = true;
+        designTolerance = 1e-12; // same as the macro that launched this one
+        cfd.flightCondition.setEulerFlag(true);
+        // - Names -
+        fluidRegionName = "Fluid";
+        freestreamBoundaryName = "Domain.Farfield";
+        PhysicsContinuumName = "Physics";
+        costFunctionName = "CD"; // overriden by -Dcost_function
+        // - Solver -
+        number1stOrderGMRESAdjointSteps = 25; // max <-- warm-start
+        number2ndOrderGMRESAdjointSteps = 15; // max (plus unused 1st-order steps)
+        cfd.solver.setAdjointCFL(25.0);
+        // - Convergence, watchdogs, CFL schedule - (see SolverDefaults; override here, or set to null to turn off)
+        SolverDefaults.apply(cfd.solver); // adjoint ones only used here
+        cfd.solver.setAdjointWarmRestart(true); // start from previous design's adjoint (cleared if it fails)
+        cfd.solver.setAdjointProducts(new ArrayList()); // none after each run: mesh sensitivities computed when gradients are read, error estimates not needed
+        // - Flight conditions -
+        cfd.flightCondition.setDragCoefficientReportName("CD");
+        cfd.flightCondition.setLiftCoefficientReportName("CL");
+    }
+    // ----------------------- USER INPUTS END HERE ----------------------------
+
+    private void readCommandLineArgs(){
+        String cost_function = System.getProperty("cost_function");
+        if (!(cost_function == null)){costFunctionName = cost_function;}
+        String output = System.getProperty("output");
+        if (!(output == null)){outputFilepath = output;}
+        String input = System.getProperty("input");
+        if (!(input == null)){independentVariableFilepath = input;}
+        String grad_tol = System.getProperty("grad_tol");
+        if (!(grad_tol == null)){cfd.solver.setGradientTolerance(Double.valueOf(grad_tol));}
+        String x_arg = System.getProperty("x");
+        if (!(x_arg == null) && !x_arg.isEmpty()){
+            String[] items = x_arg.split(",");
+            x = new double[items.length];
+            for (int i = 0; i < items.length; i++){x[i] = Double.parseDouble(items[i]);}
+        }
+    }
+}
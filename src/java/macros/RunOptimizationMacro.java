@@ -21,6 +21,7 @@ package macro;
 // Starccm+ packages 
 import framework.*;
 import java.io.*;
+import java.util.*;
 import star.common.*;
 /**
  *
@@ -36,10 +37,19 @@ public class RunOptimizationMacro extends StarMacro {
     // Class variables
     private String independentVariableFilepath;
     private String dependentVariableFilepath;
+    private String evaluationCacheFilepath;
+    private String snapshotDirectory;
+    private long snapshotDiskBudget;
+    private double designTolerance;
     private int numberPrimalSteps;
     private int number1stOrderGMRESAdjointSteps;
     private int number2ndOrderGMRESAdjointSteps;
     private boolean isRunAdjoint;
+    private boolean isUseEvaluationCache;
+    private boolean isUseSnapshots;
+    private boolean isParallelAdjoint;
+    private ParallelAdjoint parallelAdjoint;
+    private SavePolicy savePolicy;
     private String fluidRegionName;
     private String freestreamBoundaryName;
     private String PhysicsContinuumName;
@@ -68,17 +78,24 @@ public class RunOptimizationMacro extends StarMacro {
 
         // --- Run
         checkForCommandLineArgs(); // overrides user inputs
-        problem.readIndependentVariables(independentVariableFilepath);
-        if (!isRunAdjoint) {
-            cfd.solver.restartPrimal(numberPrimalSteps); // clear histories and run
-            cfd.save();
+        problem.loadIndependentVariables(independentVariableFilepath);
+        if (isUseEvaluationCache) {
+            problem.setEvaluationCache(new EvaluationCache(evaluationCacheFilepath,designTolerance));
         }
-        else {
-            cfd.solver.runAdjointWithWarmStart(number1stOrderGMRESAdjointSteps,number2ndOrderGMRESAdjointSteps);
-            cfd.save();
+        if (isUseSnapshots) {
+            cfd.setSnapshotLibrary(new SnapshotLibrary(snapshotDirectory,snapshotDiskBudget));
+        }
+        Evaluator evaluator = new Evaluator(sim, cfd, problem, independentVariableFilepath, dependentVariableFilepath);
+        evaluator.setDesignTolerance(designTolerance);
+        evaluator.setNumberPrimalSteps(numberPrimalSteps);
+        evaluator.setNumberAdjointSteps(number1stOrderGMRESAdjointSteps,number2ndOrderGMRESAdjointSteps);
+        evaluator.setRestoreArtifacts(savePolicy.isArtifactsOnly());
+        if (isParallelAdjoint) {evaluator.setParallelAdjoint(parallelAdjoint);}
+        try{evaluator.evaluate(isRunAdjoint);}
+        catch (IOException e){sim.println("Caught IOException: " + e.getMessage());}
+        if (evaluator.isRun()) {
+            cfd.save(savePolicy, problem.getNumberObjectiveFunctions() > 0 ? problem.getObjectiveFunctions()[0] : Double.NaN);
         }
-        try{problem.writeDependentVariables(dependentVariableFilepath,isRunAdjoint);}
-        catch (IOException e){e.getMessage();}
     }
 
     // ----------------------- USER INPUTS START HERE --------------------------
@@ -86,20 +103,44 @@ public class RunOptimizationMacro extends StarMacro {
         // - Files -
         independentVariableFilepath = sim.getSessionDir() + File.separator + "IndependentVariables.csv";
         dependentVariableFilepath   = sim.getSessionDir() + File.separator + "DependentVariables.csv";
+        evaluationCacheFilepath     = sim.getSessionDir() + File.separator + "EvaluationCache.csv"; // delete if setup changes
+        snapshotDirectory           = sim.getSessionDir() + File.separator + "Snapshots"; // delete if setup changes
         // - Flags -
         isRunAdjoint = true; // use this to deactivate gradient computation (e.g. during line search)
         isFlow2D = true;
+        isUseEvaluationCache = true; // answer repeat designs from file, without running
+        designTolerance = 1e-12; // designs closer than this are the same design
+        isUseSnapshots = false; // start new designs from nearest converged design (e.g. multi-start), rather than last one
+        snapshotDiskBudget = 2000L*1024*1024; // bytes (least recently used deleted beyond)
         cfd.flightCondition.setEulerFlag(true);
         // - Names -
         fluidRegionName = "Fluid";
         freestreamBoundaryName = "Domain.Farfield";
         PhysicsContinuumName = "Physics";
         // - Solver -
-        numberPrimalSteps = 1000;
-        number1stOrderGMRESAdjointSteps = 25; // new <-- warm-start
-        number2ndOrderGMRESAdjointSteps = 15; // new
-        cfd.solver.setPrimalCFL(10.0);
+        numberPrimalSteps = 1000; // max
+        number1stOrderGMRESAdjointSteps = 25; // max <-- warm-start
+        number2ndOrderGMRESAdjointSteps = 15; // max (plus unused 1st-order steps)
+        cfd.solver.setPrimalCFL(10.0); // initial, if CFL schedule set
         cfd.solver.setAdjointCFL(25.0);
+        // - Convergence, watchdogs, CFL schedule - (see SolverDefaults; override here, or set to null to turn off)
+        SolverDefaults.apply(cfd.solver);
+        cfd.solver.setAdjointWarmRestart(true); // start from previous design's adjoint (cleared if it fails)
+        cfd.solver.setAdjointProducts(new ArrayList()); // none after each run: mesh sensitivities computed when gradients are read, error estimates not needed
+        // - Parallel adjoint - (one Star-CCM+ process per cost function, on a copy of the converged primal)
+        isParallelAdjoint = false;
+        parallelAdjoint = new ParallelAdjoint("starccm+ -power -np {np} {machinefile} -classpath ASO.jar -jvmargs \"{jvmargs}\" -batch {macro} {sim}",
+                                              sim.getSessionDir() + File.separator + "RunAdjointMacro.java",
+                                              sim.getSessionDir() + File.separator + "Adjoint"); // working directory
+        parallelAdjoint.setNumberProcesses(4); // per cost function (if no machine file)
+        parallelAdjoint.setTimeout(120); // minutes, after which hung processes are killed (solved here instead)
+        if (System.getenv("PBS_NODEFILE") != null) {parallelAdjoint.setMachineFile(System.getenv("PBS_NODEFILE"));} // hosts split between cost functions
+        // - Save policy - (when the simulation is saved after an evaluation, and what is written)
+        savePolicy = new SavePolicy("Always"); // "Always", "Never", "EveryN", "Best" (lowest objective so far)
+        savePolicy.setInterval(5); // evaluations between saves ("EveryN")
+        savePolicy.setStripHistories(false); // clear residual and monitor histories before saving
+        savePolicy.setArtifactsOnly(false); // write only solution table and report values (next evaluation starts from them)
+        savePolicy.setStateFilepath(sim.getSessionDir() + File.separator + "SavePolicy.csv"); // evaluation count and best objective
         // - Flight conditions -
         cfd.flightCondition.setDragCoefficientReportName("CD");
         cfd.flightCondition.setLiftCoefficientReportName("CL");
@@ -117,5 +158,10 @@ public class RunOptimizationMacro extends StarMacro {
     private void checkForCommandLineArgs(){
         String adj_flag = System.getProperty("adj_flag");
         if (!(adj_flag == null)){isRunAdjoint = Boolean.valueOf(adj_flag);}
+        String grad_tol = System.getProperty("grad_tol"); // relative accuracy the gradients need (e.g. loose in early iterations)
+        if (!(grad_tol == null)){
+            cfd.solver.setGradientTolerance(Double.valueOf(grad_tol));
+            problem.setGradientTolerance(Double.valueOf(grad_tol));
+        }
     }
-}
+}
\ No newline at end of file
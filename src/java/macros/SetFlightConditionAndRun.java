@@ -1,7 +1,14 @@
 /*
  * This macro updates the flight conditions in an existing simulation and runs it.  
+ * 
+ * Once done, a record of the case (report values, number of cells, steps run,
+ * wall times, convergence status) is appended to the result store, which 
+ * drivers read instead of the log (see ResultStore): 
  *
- * Last Update: 5/13/2017
+ *      -Dcase_id=<id>      <---- id of the record (default: simulation name)
+ *      -Dresults=<file>    <---- result store (default: Results.csv)
+ *
+ * Last Update: 10/16/2026
  */
 
 package macro;
@@ -34,12 +41,21 @@ public class SetFlightConditionAndRun extends StarMacro {
     private int number2ndOrderGMRESAdjointSteps;
     private String saveAs;
     private boolean isSave;
+    private SavePolicy savePolicy;
     private boolean isWarmStart;
+    private boolean isUseSnapshots;
+    private String snapshotDirectory;
+    private long snapshotDiskBudget;
+    private String resultsFilepath;
+    private String caseId;
+    private ArrayList<String> resultReportNames;
+    private long startTime;
 
 
     public void execute() {
 
         // --- Create objects
+        startTime = System.nanoTime();
         simulation = getActiveSimulation();
         cfd = new CFDModel(simulation);
 
@@ -57,10 +73,15 @@ public class SetFlightConditionAndRun extends StarMacro {
         if (isGenerateMesh){cfd.mesher.mesh();}
 		
         // --- Primal
+        if (isUseSnapshots){
+            cfd.setSnapshotLibrary(new SnapshotLibrary(snapshotDirectory,snapshotDiskBudget));
+            cfd.initializeFromSnapshot(cfd.getSnapshotKey(new double[0])); // nearest converged flight condition
+        }
         cfd.solver.restartPrimal(numberPrimalSteps); // clears history but not solution 
+        cfd.saveSnapshot(cfd.getSnapshotKey(new double[0])); // if converged
 
         // --- Adjoint
-        if (isRunAdjoint){
+        if (isRunAdjoint && !cfd.solver.isPrimalFailed()){ // no adjoint of a failed primal
 			if (isWarmStart){
 				cfd.solver.runAdjointWithWarmStart( number1stOrderGMRESAdjointSteps, number2ndOrderGMRESAdjointSteps);
 			}
@@ -70,8 +91,14 @@ public class SetFlightConditionAndRun extends StarMacro {
         // --- Save
         if (isSave){
             if (!(saveAs == null)){cfd.save(saveAs);}
-            else {cfd.save();}
+            else {cfd.save(savePolicy, Double.NaN);} // no objective
         }
+
+        // --- Results
+        ResultStore store = new ResultStore(resultsFilepath);
+        cfd.solver.putResult(store, resultReportNames);
+        store.put("WallSeconds", (System.nanoTime() - startTime)*1e-9);
+        store.append(caseId);
     }
 
     // ----------------------- USER INPUTS START HERE --------------------------
@@ -82,17 +109,34 @@ public class SetFlightConditionAndRun extends StarMacro {
         isSave = true;
         isWarmStart = true;
         isFlow2D = true;
+        isUseSnapshots = true; // start from nearest converged flight condition
+        // - Save policy - (when the simulation is saved, and what is written; -Dsave always saves)
+        savePolicy = new SavePolicy("Always"); // "Always", "Never", "EveryN"
+        savePolicy.setInterval(5); // runs between saves ("EveryN")
+        savePolicy.setStripHistories(false); // clear residual and monitor histories before saving
+        savePolicy.setArtifactsOnly(false); // write only solution table and report values
+        savePolicy.setStateFilepath(simulation.getSessionDir() + File.separator + "SavePolicy.csv"); // run count
+        // - Results - (one record per run; -Dresults, -Dcase_id override)
+        resultsFilepath = simulation.getSessionDir() + File.separator + "Results.csv";
+        caseId = simulation.getPresentationName();
+        resultReportNames = new ArrayList(Arrays.asList("CL","CD","CM")); // NaN if missing
+        // - Snapshots -
+        snapshotDirectory = simulation.getSessionDir() + File.separator + "Snapshots"; // delete if setup changes
+        snapshotDiskBudget = 2000L*1024*1024; // bytes (least recently used deleted beyond)
         // - Names -
         fluidRegionName = "Fluid";
         freestreamBoundaryName = "Domain.Farfield";
         PhysicsContinuumName = "Physics";
         // - Solver -
-        numberPrimalSteps  = 2000;
+        numberPrimalSteps  = 2000; // max
         numberAdjointSteps = 2000;
-        number1stOrderGMRESAdjointSteps = 50;
-        number2ndOrderGMRESAdjointSteps = 50;
-        cfd.solver.setPrimalCFL(5.0);
+        number1stOrderGMRESAdjointSteps = 50; // max
+        number2ndOrderGMRESAdjointSteps = 50; // max (plus unused 1st-order steps)
+        cfd.solver.setPrimalCFL(5.0); // initial, if CFL schedule set
         cfd.solver.setAdjointCFL(10.0);
+        // - Convergence, watchdogs, CFL schedule - (see SolverDefaults; override here, or set to null to turn off)
+        SolverDefaults.apply(cfd.solver);
+        cfd.solver.getCFLSchedule().setMaximumCFL(20.0); // viscous cases
         // - Flight conditions - (overwritten by command line inputs)
         cfd.flightCondition.setDragCoefficientReportName("CD");
         cfd.flightCondition.setLiftCoefficientReportName("CL");
@@ -173,5 +217,11 @@ public class SetFlightConditionAndRun extends StarMacro {
             saveAs = save;
             isSave = true;
         }
+
+        String case_id = System.getProperty("case_id");
+        if (!(case_id == null)){caseId = case_id;}
+
+        String results = System.getProperty("results");
+        if (!(results == null)){resultsFilepath = results;}
     }
 }
\ No newline at end of file
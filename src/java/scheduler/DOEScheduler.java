@@ -0,0 +1,643 @@
+/*
+ * This program runs a DOE (one Star-CCM+ case per row of a CSV table, e.g.
+ * flight conditions for SetFlightConditionAndRun) several cases at a time,
+ * instead of one after the other across the whole allocation. Small cases
+ * (e.g. 2D airfoils) scale poorly past a handful of cores, so packing them
+ * side by side gives more cases per node-hour.
+ *
+ * The allocation (hosts listed in the machine file, one line per core, e.g.
+ * $PBS_NODEFILE, or -N processes on this machine) is split into slots of -npc
+ * processes each. Every slot has its own directory with its own copy of the
+ * simulation (so that concurrent cases do not share snapshot libraries and
+ * the like) and runs one case at a time: as soon as a case is done, the next
+ * one is launched on the slot that freed up. A case whose process fails
+ * (non-zero exit, or no results in its log) or runs longer than the timeout
+ * is killed and rerun, up to the number of retries.
+ *
+ * Each row is passed to the macro as -D<column>=<value> (all columns except
+ * "id" and the outputs), along with -Dsave=case_<id>.sim, which is moved to
+ * the working directory once the case is done, and -Dcase_id=<id>,
+ * -Dresults=<file>, under which the macro records its results (see
+ * ResultStore). The outputs (CL, CD, CM) are read from that record (or from
+ * the log, case_<id>.log, for macros that do not write one) and written to
+ * the DOE file, together with a Status column ("OK", "Failed", "Timeout"),
+ * after every case, so that progress is not lost if the job runs out of
+ * time. Cases already in the result store are not run again, so that an
+ * interrupted DOE resumes where it stopped.
+ *
+ * The command is a template, in which the following are substituted:
+ *
+ *      {np}            number of processes per case
+ *      {machinefile}   "-machinefile <file>" (hosts of the slot), or ""
+ *      {classpath}     "-classpath <jar>", or "" if no jar is given
+ *      {pod}, {lic}    power-on-demand key, license server
+ *      {jvmargs}       -D arguments for the macro (one row of the DOE)
+ *      {macro}, {sim}  macro to run, copy of the simulation in the slot
+ *
+ * Usage (see SubmitJob_DOE.pbs):
+ *
+ *      java -cp "ASO_jar/*" scheduler.DOEScheduler -doe DOE.csv -sim Airfoil.sim
+ *           -macro SetFlightConditionAndRun.java -jar ASO_jar
+ *           -nodes $PBS_NODEFILE -npc 4 -timeout 60 -retries 1 -pod <key>
+ *
+ * Rather than picking -npc by hand, the allocation can be tuned first: with
+ * -tune <probe macro> (ProbeThroughput.java), the simulation is run for a few
+ * timed iterations on each of the process counts given by -probes (e.g.
+ * 1,2,4,8,16), a scaling model is fit to the timings (see ThroughputModel),
+ * and the number of processes per case that maximizes the throughput of the
+ * whole allocation is recommended, along with the resulting cases per node.
+ * With -npc auto, the recommendation is applied to the DOE that follows.
+ * Probes are kept in Throughput.csv (cells*iterations/s per process) and
+ * reused by later runs, so that a cluster only needs to be probed once: with
+ * -probes none, the recommendation is made from that file alone (e.g. for a
+ * mesh of a different size, given by -cells). The number of cases in the DOE
+ * is taken into account, and -maxcells sets the largest number of cells a
+ * process can hold (memory).
+ *
+ * Last Update: 10/16/2026
+ */
+
+package scheduler;
+
+import framework.ResultStore;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * @author shb
+ */
+public class DOEScheduler {
+
+    // --- Properties
+    private String m_command;               // template (see above)
+    private String m_doeFilepath;
+    private String m_simFilepath;
+    private String m_macroPath;
+    private String m_classpath;             // null = none
+    private String m_podkey;
+    private String m_licensePath;
+    private String m_workingDirectory;
+    private String m_machineFile;           // null = run locally
+    private int m_numberProcesses;          // in total (if no machine file)
+    private int m_numberProcessesPerCase;
+    private long m_timeout;                 // minutes per attempt (0 = none)
+    private int m_numberRetries;
+    private ArrayList<String> m_outputNames;
+    private String m_idHeader;
+    private String m_statusHeader;
+    private String m_resultsFilepath;       // result store (in working directory)
+    private boolean m_isTune;               // -tune or -probes given
+    private boolean m_isAutoProcessesPerCase;   // -npc auto
+    private String m_probeMacroPath;        // null = no tuning
+    private ArrayList<Integer> m_probeProcesses;
+    private int m_numberProbeSteps;
+    private String m_throughputFilepath;
+    private double m_numberCells;           // NaN = that of the probes
+    private String m_probeFailureReason;    // why the last probe gave no result
+    private double m_maximumCellsPerProcess;
+
+    // DOE table (one list of items per row, same order as the header)
+    private ArrayList<String> m_header;
+    private ArrayList<ArrayList<String>> m_rows;
+
+    // One part of the allocation, running one case at a time
+    private static class Slot {
+        int id;
+        ArrayList<String> hosts;            // null = local
+        File directory;
+        File sim;
+    }
+
+    // --- Constructor
+    public DOEScheduler(){
+        m_command = "starccm+ -power -podkey {pod} -licpath {lic} -np {np} {machinefile} {classpath} -jvmargs \"{jvmargs}\" -batch {macro} {sim}";
+        m_classpath = null;
+        m_podkey = "";
+        m_licensePath = "1999@flex.cd-adapco.com";
+        m_workingDirectory = System.getProperty("user.dir");
+        m_machineFile = null;
+        m_numberProcesses = 2;
+        m_numberProcessesPerCase = 2;
+        m_timeout = 0;
+        m_numberRetries = 1;
+        m_outputNames = new ArrayList(Arrays.asList("CL", "CD", "CM"));
+        m_idHeader = "id";
+        m_statusHeader = "Status";
+        m_resultsFilepath = "Results.csv";
+        m_isTune = false;
+        m_isAutoProcessesPerCase = false;
+        m_probeMacroPath = null;
+        m_probeProcesses = new ArrayList(Arrays.asList(1, 2, 4, 8));
+        m_numberProbeSteps = 20;
+        m_throughputFilepath = "Throughput.csv";
+        m_numberCells = Double.NaN;
+        m_probeFailureReason = "";
+        m_maximumCellsPerProcess = Double.POSITIVE_INFINITY;
+        m_header = new ArrayList();
+        m_rows = new ArrayList();
+    }
+
+    // This method reads the command line (same flags as RunDOE.py, plus -npc,
+    // -timeout, -retries, -command, -results, and -tune, -probes, -steps, -cells,
+    // -maxcells) and
+    // runs the DOE (if any)
+    public static void main(String[] args){
+        DOEScheduler scheduler = new DOEScheduler();
+        for (int i = 0; i + 1 < args.length; i += 2){
+            switch (args[i]) {
+                case "-doe":        scheduler.setDOEFilepath(args[i+1]); break;
+                case "-sim":        scheduler.setSimFilepath(args[i+1]); break;
+                case "-macro":      scheduler.setMacroPath(args[i+1]); break;
+                case "-jar":        scheduler.setClasspath(args[i+1]); break;
+                case "-pod":        scheduler.setPodkey(args[i+1]); break;
+                case "-lic":        scheduler.setLicensePath(args[i+1]); break;
+                case "-pwd":        scheduler.setWorkingDirectory(args[i+1]); break;
+                case "-nodes":      scheduler.setMachineFile(args[i+1]); break;
+                case "-N":          scheduler.setNumberProcesses(Integer.parseInt(args[i+1])); break;
+                case "-npc":
+                    if (args[i+1].equals("auto")){scheduler.setAutoProcessesPerCase(true);}
+                    else {scheduler.setNumberProcessesPerCase(Integer.parseInt(args[i+1]));}
+                    break;
+                case "-timeout":    scheduler.setTimeout(Long.parseLong(args[i+1])); break;
+                case "-retries":    scheduler.setNumberRetries(Integer.parseInt(args[i+1])); break;
+                case "-command":    scheduler.setCommand(args[i+1]); break;
+                case "-results":    scheduler.setResultsFilepath(args[i+1]); break;
+                case "-tune":       scheduler.setProbeMacroPath(args[i+1]); break;
+                case "-probes":     scheduler.setProbeProcesses(args[i+1]); break;
+                case "-steps":      scheduler.setNumberProbeSteps(Integer.parseInt(args[i+1])); break;
+                case "-cells":      scheduler.setNumberCells(Double.parseDouble(args[i+1])); break;
+                case "-maxcells":   scheduler.setMaximumCellsPerProcess(Double.parseDouble(args[i+1])); break;
+                default:
+                    System.out.println("Unknown argument " + args[i]);
+                    return;
+            }
+        }
+        if (scheduler.m_isTune || scheduler.m_isAutoProcessesPerCase){scheduler.tune();}
+        if (scheduler.m_doeFilepath != null){scheduler.run();}
+    }
+
+    // -------------------------------------------------------------------------
+    // ---------------------- P U B L I C   M E T H O D S ----------------------
+    // -------------------------------------------------------------------------
+
+    // This method runs all cases of the DOE, filling slots as they free up,
+    // and returns once all are done
+    public void run(){
+        ArrayList<Slot> slots;
+        try {
+            readDOE();
+            slots = createSlots();
+        }
+        catch (IOException e){
+            System.out.println("Caught IOException: " + e.getMessage());
+            return;
+        }
+        ArrayList<Integer> rows = new ArrayList();
+        for (int i = 0; i < m_rows.size(); i++){
+            String status = readResult(i);
+            if (status == null){rows.add(i);}
+            else {setValue(i, m_statusHeader, status);} // done in an earlier run
+        }
+        writeDOE();
+        System.out.println("Running " + rows.size() + " cases on " + slots.size() + " slots of " + m_numberProcessesPerCase + " processes"
+                + " (" + (m_rows.size() - rows.size()) + " already in " + m_resultsFilepath + ")");
+        BlockingQueue<Slot> freeSlots = new LinkedBlockingQueue(slots);
+        ExecutorService executor = Executors.newFixedThreadPool(slots.size());
+        for (int row: rows){
+            executor.submit(() -> runCase(row, freeSlots));
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        }
+        catch (InterruptedException e){
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        for (Slot slot: slots){slot.sim.delete();}
+    }
+
+    // This method probes the allocation (if a probe macro is given), fits the
+    // scaling model to all probes recorded so far, prints the recommended
+    // number of processes per case, and applies it if -npc auto
+    public void tune(){
+        ThroughputModel model = new ThroughputModel();
+        model.setMaximumCellsPerProcess(m_maximumCellsPerProcess);
+        String filepath = new File(m_workingDirectory, m_throughputFilepath).getPath();
+        model.load(filepath);
+        ArrayList<String> hosts;
+        try {
+            hosts = readHosts();
+            if (m_probeMacroPath != null && m_simFilepath != null){
+                for (int np: m_probeProcesses){
+                    if (np > (hosts == null ? m_numberProcesses : hosts.size())){continue;}
+                    double[] probe = runProbe(np, hosts);
+                    if (probe == null){
+                        System.out.println("Probe on " + np + " processes failed (" + m_probeFailureReason + ", see probe_" + np + ".log)");
+                        continue;
+                    }
+                    model.add(np, probe[0], (int) probe[1], probe[2]);
+                    System.out.println("Probe on " + np + " processes: " + probe[0]*probe[1]/probe[2]/np + " cells*iterations/s per process");
+                    model.save(filepath);
+                }
+                new File(m_workingDirectory, "Probe").delete(); // empty by now
+            }
+        }
+        catch (IOException e){
+            System.out.println("Caught IOException: " + e.getMessage());
+            return;
+        }
+        if (!model.fit()){
+            System.out.println("Not enough probes in " + filepath + " to tune (need 2 process counts)");
+            return;
+        }
+        int numberProcesses = hosts == null ? m_numberProcesses : hosts.size();
+        int processesPerNode = getProcessesPerNode(hosts);
+        double cells = Double.isNaN(m_numberCells) ? model.getReferenceCells() : m_numberCells;
+        int numberCases = 0; // unknown
+        if (m_doeFilepath != null){
+            try {
+                readDOE();
+                numberCases = m_rows.size();
+            }
+            catch (IOException e){
+                System.out.println("Caught IOException: " + e.getMessage());
+            }
+        }
+        int best = model.getBestProcessesPerCase(numberProcesses, processesPerNode, cells, numberCases);
+        System.out.println(model.toString());
+        System.out.println("Recommended for " + (long) cells + " cells on " + numberProcesses + " processes"
+                + (numberCases > 0 ? " (" + numberCases + " cases)" : "") + ": "
+                + best + " processes per case, " + (best < processesPerNode ? processesPerNode/best : 1) + " case(s) per node, "
+                + numberProcesses/best + " cases at once, " + 3600.0*model.getThroughput(best, numberProcesses, cells, numberCases) + " case iterations/hour");
+        if (m_isAutoProcessesPerCase){m_numberProcessesPerCase = best;}
+    }
+
+    // These methods set the inputs (see main)
+    public void setCommand(String s){m_command = s;}
+    public void setDOEFilepath(String s){m_doeFilepath = s;}
+    public void setSimFilepath(String s){m_simFilepath = s;}
+    public void setMacroPath(String s){m_macroPath = s;}
+    public void setClasspath(String s){m_classpath = s;}
+    public void setPodkey(String s){m_podkey = s;}
+    public void setLicensePath(String s){m_licensePath = s;}
+    public void setWorkingDirectory(String s){m_workingDirectory = s;}
+    public void setMachineFile(String s){m_machineFile = s;}
+    public void setNumberProcesses(int n){m_numberProcesses = n;}
+    public void setNumberProcessesPerCase(int n){m_numberProcessesPerCase = n;}
+    public void setTimeout(long minutes){m_timeout = minutes;}
+    public void setNumberRetries(int n){m_numberRetries = n;}
+    public void setOutputNames(ArrayList<String> names){m_outputNames = names;}
+    public void setResultsFilepath(String s){m_resultsFilepath = s;}
+    public void setAutoProcessesPerCase(boolean b){m_isAutoProcessesPerCase = b;}
+    public void setProbeMacroPath(String s){
+        m_probeMacroPath = s;
+        m_isTune = true;
+    }
+    public void setNumberProbeSteps(int n){m_numberProbeSteps = n;}
+    public void setThroughputFilepath(String s){m_throughputFilepath = s;}
+    public void setNumberCells(double n){m_numberCells = n;}
+    public void setMaximumCellsPerProcess(double n){m_maximumCellsPerProcess = n;}
+
+    // This method sets the process counts to probe, e.g. "1,2,4,8" ("none" =
+    // use recorded probes only)
+    public void setProbeProcesses(String s){
+        m_probeProcesses = new ArrayList();
+        m_isTune = true;
+        if (s.equals("none")){return;}
+        for (String item: s.split(",")){m_probeProcesses.add(Integer.parseInt(item.trim()));}
+    }
+
+    // -------------------------------------------------------------------------
+    // ---------------------- P R I V A T E   M E T H O D S --------------------
+    // -------------------------------------------------------------------------
+
+    // This method runs one case (with retries) on the next free slot
+    private void runCase(int row, BlockingQueue<Slot> freeSlots){
+        Slot slot;
+        try {
+            slot = freeSlots.take();
+        }
+        catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            String status = "";
+            for (int attempt = 0; attempt <= m_numberRetries && !status.equals("OK"); attempt++){
+                status = runAttempt(row, slot);
+                System.out.println("Case " + getId(row) + " (slot " + slot.id + ", attempt " + (attempt + 1) + "): " + status);
+            }
+            setValue(row, m_statusHeader, status);
+            writeDOE();
+        }
+        finally {
+            freeSlots.add(slot);
+        }
+    }
+
+    // This method runs one case once on the slot and returns its status
+    // ("OK", "Failed", "Timeout"). Outputs are stored in the row if OK.
+    private String runAttempt(int row, Slot slot){
+        String id = getId(row);
+        File log = new File(m_workingDirectory, "case_" + id + ".log");
+        String command = getCommand(m_numberProcessesPerCase, slot, getJvmArgs(row), m_macroPath);
+        String status = runProcess(command, slot.directory, log);
+        if (!status.equals("OK")){return status;}
+
+        // Results (from the log if the macro recorded none)
+        status = readResult(row);
+        if (status == null){
+            double[] values = new double[m_outputNames.size()];
+            for (int j = 0; j < values.length; j++){
+                values[j] = parseValue(log, m_outputNames.get(j));
+                if (Double.isNaN(values[j])){return "Failed";}
+            }
+            for (int j = 0; j < values.length; j++){setValue(row, m_outputNames.get(j), String.valueOf(values[j]));}
+        }
+        else if (!status.equals("OK")){return status;}
+        File sim = new File(slot.directory, "case_" + id + ".sim");
+        if (sim.exists()){
+            try {Files.move(sim.toPath(), new File(m_workingDirectory, sim.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);}
+            catch (IOException e){System.out.println("Caught IOException: " + e.getMessage());}
+        }
+        return "OK";
+    }
+
+    // This method runs the probe macro on the first np processes of the
+    // allocation and returns {cells, steps, seconds}, or null if it failed
+    private double[] runProbe(int np, ArrayList<String> hosts) throws IOException {
+        Slot slot = new Slot();
+        slot.id = 0;
+        slot.directory = new File(m_workingDirectory, "Probe");
+        slot.directory.mkdirs();
+        slot.sim = new File(slot.directory, new File(m_simFilepath).getName());
+        Files.copy(new File(m_simFilepath).toPath(), slot.sim.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        if (hosts != null){
+            slot.hosts = new ArrayList(hosts.subList(0, np));
+            writeHosts(slot);
+        }
+        File log = new File(m_workingDirectory, "probe_" + np + ".log");
+        String command = getCommand(np, slot, "-Dsteps=" + m_numberProbeSteps, m_probeMacroPath);
+        String status = runProcess(command, slot.directory, log);
+        slot.sim.delete();
+        new File(slot.directory, "hosts").delete();
+        m_probeFailureReason = status.equals("OK") ? "no probe line in log" : status;
+        if (!log.exists()){return null;}
+        double[] probe = null;
+        try (BufferedReader reader = new BufferedReader(new FileReader(log))) {
+            String line;
+            while ((line = reader.readLine()) != null){
+                int failure = line.indexOf("Throughput probe failed:");
+                if (failure >= 0){
+                    m_probeFailureReason = line.substring(failure + "Throughput probe failed:".length()).trim();
+                    continue;
+                }
+                int start = line.indexOf("Throughput probe:");
+                if (start < 0){continue;}
+                double[] values = new double[3];
+                for (String item: line.substring(start + "Throughput probe:".length()).trim().split("\\s+")){
+                    String[] pair = item.split("=");
+                    if (pair.length != 2){continue;}
+                    try {
+                        switch (pair[0]) {
+                            case "cells":   values[0] = Double.parseDouble(pair[1]); break;
+                            case "steps":   values[1] = Double.parseDouble(pair[1]); break;
+                            case "seconds": values[2] = Double.parseDouble(pair[1]); break;
+                        }
+                    }
+                    catch (NumberFormatException e){} // left at 0
+                }
+                if (values[0] > 0 && values[1] > 0 && values[2] > 0){probe = values;}
+            }
+        }
+        return status.equals("OK") ? probe : null;
+    }
+
+    // This method fills in the command template for np processes on the slot
+    private String getCommand(int np, Slot slot, String jvmArgs, String macroPath){
+        return m_command.replace("{np}", String.valueOf(np))
+                        .replace("{machinefile}", slot.hosts == null ? "" : "-machinefile " + new File(slot.directory, "hosts").getAbsolutePath())
+                        .replace("{classpath}", m_classpath == null ? "" : "-classpath " + m_classpath)
+                        .replace("{pod}", m_podkey)
+                        .replace("{lic}", m_licensePath)
+                        .replace("{jvmargs}", jvmArgs)
+                        .replace("{macro}", macroPath)
+                        .replace("{sim}", slot.sim.getAbsolutePath());
+    }
+
+    // This method runs a command in the directory, with output to the log,
+    // and returns "OK", "Failed" (non-zero exit) or "Timeout"
+    private String runProcess(String command, File directory, File log){
+        try {
+            ProcessBuilder builder = new ProcessBuilder("/bin/sh", "-c", "exec " + command);
+            builder.directory(directory);
+            builder.redirectErrorStream(true);
+            builder.redirectOutput(log);
+            Process process = builder.start();
+            boolean isDone = true;
+            if (m_timeout > 0){isDone = process.waitFor(m_timeout, TimeUnit.MINUTES);}
+            else {process.waitFor();}
+            if (!isDone){
+                process.destroy(); // let Star-CCM+ shut down its servers
+                if (!process.waitFor(1, TimeUnit.MINUTES)){process.destroyForcibly().waitFor();}
+                return "Timeout";
+            }
+            if (process.exitValue() != 0){return "Failed";}
+        }
+        catch (IOException e){
+            System.out.println("Caught IOException: " + e.getMessage());
+            return "Failed";
+        }
+        catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            return "Failed";
+        }
+        return "OK";
+    }
+
+    // This method reads the machine file (one line per core), or returns null
+    // if there is none (local run)
+    private ArrayList<String> readHosts() throws IOException {
+        if (m_machineFile == null){return null;}
+        ArrayList<String> hosts = new ArrayList();
+        try (BufferedReader reader = new BufferedReader(new FileReader(m_machineFile))) {
+            String line;
+            while ((line = reader.readLine()) != null){
+                if (!line.trim().isEmpty()){hosts.add(line.trim());}
+            }
+        }
+        return hosts;
+    }
+
+    // This method returns the number of processes on the first node of the
+    // allocation (all of them if local)
+    private int getProcessesPerNode(ArrayList<String> hosts){
+        if (hosts == null){return m_numberProcesses;}
+        int n = 0;
+        for (String host: hosts){
+            if (host.equals(hosts.get(0))){n++;}
+        }
+        return n;
+    }
+
+    // This method writes the hosts file of the slot
+    private void writeHosts(Slot slot) throws IOException {
+        try (FileWriter writer = new FileWriter(new File(slot.directory, "hosts"))) {
+            for (String host: slot.hosts){writer.write(host + "\n");}
+        }
+    }
+
+    // This method splits the allocation into slots of (at most) the number of
+    // processes per case, each with its own directory and copy of the
+    // simulation. Hosts are taken in the order of the machine file, which
+    // lists the cores of a node together, so slots do not span nodes as long
+    // as the processes per case divide the cores per node.
+    private ArrayList<Slot> createSlots() throws IOException {
+        ArrayList<String> hosts = readHosts();
+        int numberProcesses = hosts == null ? m_numberProcesses : hosts.size();
+        m_numberProcessesPerCase = Math.max(1, Math.min(m_numberProcessesPerCase, numberProcesses));
+        int numberSlots = Math.max(1, numberProcesses/m_numberProcessesPerCase);
+        ArrayList<Slot> slots = new ArrayList();
+        for (int i = 0; i < numberSlots; i++){
+            Slot slot = new Slot();
+            slot.id = i + 1;
+            slot.directory = new File(m_workingDirectory, "Slot_" + slot.id);
+            slot.directory.mkdirs();
+            slot.sim = new File(slot.directory, new File(m_simFilepath).getName());
+            Files.copy(new File(m_simFilepath).toPath(), slot.sim.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            if (hosts != null){
+                slot.hosts = new ArrayList(hosts.subList(i*m_numberProcessesPerCase, (i+1)*m_numberProcessesPerCase));
+                writeHosts(slot);
+            }
+            slots.add(slot);
+        }
+        return slots;
+    }
+
+    // This method returns the -D arguments for one row: every column except
+    // the id and outputs, and the name to save the simulation as
+    private String getJvmArgs(int row){
+        StringBuilder builder = new StringBuilder();
+        for (int j = 0; j < m_header.size(); j++){
+            String name = m_header.get(j);
+            if (name.equals(m_idHeader) || name.equals(m_statusHeader) || m_outputNames.contains(name)){continue;}
+            builder.append("-D").append(name).append('=').append(m_rows.get(row).get(j)).append(' ');
+        }
+        builder.append("-Dsave=case_").append(getId(row)).append(".sim ");
+        builder.append("-Dcase_id=").append(getId(row)).append(' ');
+        builder.append("-Dresults=").append(getResultsFile().getAbsolutePath());
+        return builder.toString();
+    }
+
+    // This method copies the outputs of a case from its record in the result
+    // store into the row, and returns "OK", or "Failed" if the primal failed
+    // or an output is missing, or null if the case is not in the store
+    private String readResult(int row){
+        LinkedHashMap<String,String> record = new ResultStore(getResultsFile().getPath()).get(getId(row));
+        if (record == null){return null;}
+        String status = "Failed".equals(record.get("Status")) ? "Failed" : "OK";
+        for (String name: m_outputNames){
+            String value = record.get(name);
+            if (value == null || value.isEmpty() || value.equals("NaN")){status = "Failed";}
+            else {setValue(row, name, value);}
+        }
+        return status;
+    }
+
+    // This method returns the result store
+    private File getResultsFile(){
+        File file = new File(m_resultsFilepath);
+        return file.isAbsolute() ? file : new File(m_workingDirectory, m_resultsFilepath);
+    }
+
+    // This method scans the log file and returns the last value in the column
+    // of the residual printout corresponding to the header (e.g. "CD"), or NaN
+    private double parseValue(File log, String header){
+        String residualNames = "Iteration     Continuity     X-momentum     Y-momentum         Energy";
+        int col = -1;
+        double value = Double.NaN;
+        try (BufferedReader reader = new BufferedReader(new FileReader(log))) {
+            String line;
+            while ((line = reader.readLine()) != null){
+                String[] items = line.trim().split("\\s+");
+                if (line.contains(residualNames) && line.contains(header)){
+                    col = Arrays.asList(items).indexOf(header);
+                    continue;
+                }
+                if (col >= 0 && col < items.length){
+                    try {value = Double.parseDouble(items[col]);}
+                    catch (NumberFormatException e){} // not a residual line
+                }
+            }
+        }
+        catch (IOException e){
+            System.out.println("Caught IOException: " + e.getMessage());
+        }
+        return value;
+    }
+
+    // This method reads the DOE table, adding output and status columns if
+    // missing
+    private void readDOE() throws IOException {
+        m_header.clear();
+        m_rows.clear();
+        try (BufferedReader reader = new BufferedReader(new FileReader(m_doeFilepath))) {
+            String line = reader.readLine();
+            if (line == null){throw new IOException("empty DOE file " + m_doeFilepath);}
+            for (String item: line.split(",")){m_header.add(item.trim());}
+            while ((line = reader.readLine()) != null){
+                if (line.trim().isEmpty()){continue;}
+                ArrayList<String> row = new ArrayList();
+                for (String item: line.split(",", -1)){row.add(item.trim());}
+                while (row.size() < m_header.size()){row.add("");}
+                m_rows.add(row);
+            }
+        }
+        ArrayList<String> columns = new ArrayList(m_outputNames);
+        columns.add(m_statusHeader);
+        for (String name: columns){
+            if (m_header.contains(name)){continue;}
+            m_header.add(name);
+            for (ArrayList<String> row: m_rows){row.add("");}
+        }
+    }
+
+    // This method rewrites the DOE table (as it stands)
+    private synchronized void writeDOE(){
+        StringBuilder sb = new StringBuilder(String.join(",", m_header)).append('\n');
+        for (ArrayList<String> row: m_rows){sb.append(String.join(",", row)).append('\n');}
+        try (FileWriter writer = new FileWriter(m_doeFilepath)) {
+            writer.write(sb.toString());
+        }
+        catch (IOException e){
+            System.out.println("Caught IOException: " + e.getMessage());
+        }
+    }
+
+    // This method returns the id of a case (row number, from 1, if there is
+    // no id column)
+    private String getId(int row){
+        int col = m_header.indexOf(m_idHeader);
+        return col < 0 ? String.valueOf(row + 1) : m_rows.get(row).get(col);
+    }
+
+    // This method updates one item of the table
+    private synchronized void setValue(int row, String header, String value){
+        m_rows.get(row).set(m_header.indexOf(header), value);
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * The purpose of this class is to predict how fast a Star-CCM+ case runs on a
+ * given number of processes, from short timed probes of a representative
+ * case, and to pick the number of processes per case that maximizes the
+ * throughput of the whole allocation when many cases run side by side (DOE,
+ * multi-start optimization), rather than the speed of any single case.
+ *
+ * The wall time per iteration on p processes is modeled as
+ *
+ *      t(p) = a + b*(n/n0)/p + c*p
+ *
+ * where n is the number of cells of the case (n0 that of the probes): a is
+ * the serial part, b the work shared between processes, and c the overhead
+ * that grows with the number of processes (communication). The coefficients
+ * are fit to the probes by least squares (c is dropped if there are fewer
+ * than 3 probes). With P processes in total, floor(P/p) cases run at once,
+ * so the throughput is floor(P/p)/t(p) case iterations per second. When the
+ * number of cases is known (a DOE), slots left idle in the last round are
+ * accounted for, and a case may not get fewer processes than its memory
+ * needs (largest number of cells per process, if set).
+ *
+ * Probes are kept in a CSV file, so that they can be reused by later runs on
+ * the same cluster (the rate, in cells*iterations/s per process, is there for
+ * the record):
+ *
+ *      Processes,Cells,Steps,Seconds,Rate
+ *
+ * This class knows nothing about Star-CCM+.
+ */
+
+package scheduler;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.QRDecomposition;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+
+/**
+ *
+ * @author shb
+ */
+public class ThroughputModel {
+
+    // --- Properties
+    private final ArrayList<Probe> m_probes;
+    private double m_serialTime;            // a
+    private double m_parallelTime;          // b
+    private double m_overheadTime;          // c
+    private double m_referenceCells;        // n0
+    private double m_maximumCellsPerProcess;    // memory
+
+    // One timed run
+    private static class Probe {
+        int processes;
+        double cells;
+        int steps;
+        double seconds;
+    }
+
+    // --- Constructor
+    public ThroughputModel(){
+        m_probes = new ArrayList();
+        m_serialTime = 0.0;
+        m_parallelTime = 0.0;
+        m_overheadTime = 0.0;
+        m_referenceCells = Double.NaN;
+        m_maximumCellsPerProcess = Double.POSITIVE_INFINITY;
+    }
+
+    // -------------------------------------------------------------------------
+    // ---------------------- P U B L I C   M E T H O D S ----------------------
+    // -------------------------------------------------------------------------
+
+    // This method records a probe: steps iterations of a case with the given
+    // number of cells took seconds on the given number of processes
+    public void add(int processes, double cells, int steps, double seconds){
+        if (processes <= 0 || steps <= 0 || !(seconds > 0.0) || !(cells > 0.0)){return;}
+        Probe probe = new Probe();
+        probe.processes = processes;
+        probe.cells = cells;
+        probe.steps = steps;
+        probe.seconds = seconds;
+        m_probes.add(probe);
+    }
+
+    // This method fits the model to the probes (returns false if there are
+    // fewer than 2 distinct process counts). Probe times are scaled to the
+    // cell count of the first probe.
+    public boolean fit(){
+        ArrayList<Integer> counts = new ArrayList();
+        for (Probe probe: m_probes){
+            if (!counts.contains(probe.processes)){counts.add(probe.processes);}
+        }
+        if (counts.size() < 2){return false;}
+        m_referenceCells = m_probes.get(0).cells;
+        int numberTerms = counts.size() < 3 ? 2 : 3;
+        RealMatrix A = MatrixUtils.createRealMatrix(m_probes.size(), numberTerms);
+        RealVector t = MatrixUtils.createRealVector(new double[m_probes.size()]);
+        for (int i = 0; i < m_probes.size(); i++){
+            Probe probe = m_probes.get(i);
+            double p = probe.processes;
+            A.setEntry(i, 0, 1.0);
+            A.setEntry(i, 1, 1.0/p);
+            if (numberTerms > 2){A.setEntry(i, 2, p);}
+            double time = probe.seconds/probe.steps;
+            t.setEntry(i, time*m_referenceCells/probe.cells); // as if same mesh (mostly work)
+        }
+        RealVector x = new QRDecomposition(A).getSolver().solve(t);
+        m_serialTime = Math.max(0.0, x.getEntry(0));
+        m_parallelTime = Math.max(0.0, x.getEntry(1));
+        m_overheadTime = numberTerms > 2 ? Math.max(0.0, x.getEntry(2)) : 0.0;
+        return m_parallelTime > 0.0;
+    }
+
+    // This method returns the predicted wall time per iteration (s) of a case
+    // with the given number of cells on p processes
+    public double getIterationTime(int p, double cells){
+        return m_serialTime + m_parallelTime*(cells/m_referenceCells)/p + m_overheadTime*p;
+    }
+
+    // This method returns the predicted throughput (case iterations per
+    // second) of the allocation, when cases of the given size run on p
+    // processes each
+    public double getThroughput(int p, int totalProcesses, double cells){
+        return (totalProcesses/p)/getIterationTime(p, cells);
+    }
+
+    // This method returns the predicted throughput (case iterations per
+    // second) of the allocation for a given number of cases (0 = unknown),
+    // i.e. cases over the time of the rounds it takes to run them all
+    public double getThroughput(int p, int totalProcesses, double cells, int numberCases){
+        if (numberCases <= 0){return getThroughput(p, totalProcesses, cells);}
+        int numberSlots = Math.max(1, totalProcesses/p);
+        int numberRounds = (numberCases + numberSlots - 1)/numberSlots;
+        return numberCases/(numberRounds*getIterationTime(p, cells));
+    }
+
+    // This method returns the number of processes per case that maximizes the
+    // throughput of the allocation for a given number of cases (0 =
+    // unknown). Candidates are divisors of the processes per node (several
+    // cases per node) and whole nodes (one case over several nodes), so that
+    // no case straddles nodes unnecessarily.
+    public int getBestProcessesPerCase(int totalProcesses, int processesPerNode, double cells, int numberCases){
+        int best = Math.min(processesPerNode, totalProcesses);
+        double bestThroughput = 0.0;
+        for (int p: getCandidates(totalProcesses, processesPerNode)){
+            if (cells/p > m_maximumCellsPerProcess){continue;} // does not fit
+            double throughput = getThroughput(p, totalProcesses, cells, numberCases);
+            if (throughput > bestThroughput){
+                best = p;
+                bestThroughput = throughput;
+            }
+        }
+        return best;
+    }
+
+    // This method sets (gets) the largest number of cells a process can hold
+    // (memory)
+    public void setMaximumCellsPerProcess(double n){m_maximumCellsPerProcess = n;}
+    public double getMaximumCellsPerProcess(){return m_maximumCellsPerProcess;}
+
+    // This method returns the cell count of the probes (NaN before fit)
+    public double getReferenceCells(){return m_referenceCells;}
+
+    // This method returns the number of probes recorded
+    public int getNumberProbes(){return m_probes.size();}
+
+    // This method returns a one-line summary of the fitted model
+    @Override
+    public String toString(){
+        return "t(p) = " + m_serialTime + " + " + m_parallelTime + "*(n/" + m_referenceCells + ")/p + " + m_overheadTime + "*p s/iteration";
+    }
+
+    // This method reads probes from file (if it exists)
+    public void load(String filepath){
+        if (!new File(filepath).exists()){return;}
+        try (BufferedReader reader = new BufferedReader(new FileReader(filepath))) {
+            String line = reader.readLine(); // header
+            while ((line = reader.readLine()) != null){
+                String[] items = line.split(",");
+                try {add(Integer.parseInt(items[0].trim()), Double.parseDouble(items[1]), Integer.parseInt(items[2].trim()), Double.parseDouble(items[3]));}
+                catch (NumberFormatException | ArrayIndexOutOfBoundsException e){} // skip line
+            }
+        }
+        catch (IOException e){
+            System.out.println("Caught IOException: " + e.getMessage());
+        }
+    }
+
+    // This method writes the probes to file
+    public void save(String filepath){
+        StringBuilder sb = new StringBuilder("Processes,Cells,Steps,Seconds,Rate\n");
+        for (Probe probe: m_probes){
+            double rate = probe.cells*probe.steps/probe.seconds/probe.processes;
+            sb.append(probe.processes).append(',').append(probe.cells).append(',').append(probe.steps)
+              .append(',').append(probe.seconds).append(',').append(rate).append('\n');
+        }
+        try (FileWriter writer = new FileWriter(filepath)) {
+            writer.write(sb.toString());
+        }
+        catch (IOException e){
+            System.out.println("Caught IOException: " + e.getMessage());
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // ---------------------- P R I V A T E   M E T H O D S --------------------
+    // -------------------------------------------------------------------------
+
+    // This method returns the candidate numbers of processes per case
+    private ArrayList<Integer> getCandidates(int totalProcesses, int processesPerNode){
+        ArrayList<Integer> candidates = new ArrayList();
+        int perNode = Math.min(processesPerNode, totalProcesses);
+        for (int p = 1; p <= perNode; p++){
+            if (perNode % p == 0){candidates.add(p);}
+        }
+        for (int p = 2*perNode; p <= totalProcesses; p += perNode){candidates.add(p);}
+        return candidates;
+    }
+}
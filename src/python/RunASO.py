@@ -24,6 +24,9 @@ DEVELOPMENT NOTES:
 
 import numpy as np
 import os
+import io
+import time
+import socket
 import pandas as pd
 from scipy.optimize import minimize
 import subprocess
@@ -74,6 +77,11 @@ if n_g > 0:
 
 # Initialize global variables (used to keep track of optimizer history)
 iteration = 0
+x_previous = None  # last design at which gradients were computed
+grad_tol = None  # relative gradient accuracy asked for in the last evaluation (None = fully converged)
+f_good = None  # last values evaluated (penalties of failed designs are based on them)
+g_good = None
+h_good = None
 if n_f > 0:
     f = [None]*n_f
     dfdx = np.zeros((n_f, n_var))
@@ -131,6 +139,30 @@ parser.add_argument("-maxiter", action="store", dest="max_iter", type=str,
                     default="15",
                     help='Maximum number of optimizer iterations')
 
+parser.add_argument("-port", action="store", dest="port", type=int,
+                    default=None,
+                    help='Run STAR-CCM+ once as an evaluation server on this local port (e.g. 50505)')
+
+parser.add_argument("-server", action="store", dest="server_macro", type=str,
+                    default="EvaluationServer.java",
+                    help='Path of the java macro used in server mode')
+
+parser.add_argument("-gradtol0", action="store", dest="grad_tol_0", type=float,
+                    default=0.0,
+                    help='Relative gradient accuracy needed at the first iteration, e.g. 1e-2 (0 = fully converged adjoint throughout)')
+
+parser.add_argument("-gradtolmin", action="store", dest="grad_tol_min", type=float,
+                    default=1e-4,
+                    help='Tightest relative gradient accuracy asked for (near the optimum)')
+
+parser.add_argument("-activetol", action="store", dest="active_tol", type=float,
+                    default=None,
+                    help='Inequality constraints g(x) above this are inactive: their gradients are not computed (default: all active)')
+
+parser.add_argument("-penalty", action="store", dest="penalty", type=float,
+                    default=10.0,
+                    help='Penalty of a design that could not be evaluated, relative to the last values evaluated')
+
 args = parser.parse_args()
 
 # Initialize dictionary
@@ -145,26 +177,40 @@ star_flags = dict({"jar": args.class_path,
                    "nodes": args.machinefile,
                    "adjoint": False})
 
+# Evaluation server (only used if -port is given)
+server = None
+server_stream = None
+server_process = None
+server_output = None
+
 # ----------------------------------------------------------------------------------------------------------------------
 # SUPPORT FUNCTIONS
 # ----------------------------------------------------------------------------------------------------------------------
 
-def call_starccmplus(adj_flag = False):
+class EvaluationFailed(Exception):
     """
     DESCRIPTION
-    Calls STAR-CCM+ and evaluates the current design x. This is accomplished by
-    a java {macro}, which has logic to read/write values contained in the CSV
-    files (IndependentVariables.csv and DependentVariables.csv) that were just
-    updated in the parent function calling this one.
+    Raised when STAR-CCM+ could not evaluate a design (e.g. primal or adjoint
+    diverged), so that NaN values or gradients never reach the optimizer.
+    """
+    pass
+
+
+def star_command(macro, jvmargs, log):
+    """
+    DESCRIPTION
+    Returns the system call that runs the java {macro} on the simulation.
 
     ARGUMENTS
-    :param adj_flag: a flag to turn adjoint solver off during line search (save time)
+    :param macro: path of the java macro to run
+    :param jvmargs: java arguments passed to the macro (e.g. -Dadj_flag=True)
+    :param log: file to which STAR-CCM+ output is written
 
     OUTPUTS
-    :return: none (output values written to CSV file DependentVariables.csv)
+    :return: system call (string)
     """
-    star_flags["adjoint"] = adj_flag
-    if star_flags["hpc"]:  # run on cluster
+    flags = dict(star_flags, macro=macro, jvmargs=jvmargs, log=log)
+    if flags["hpc"]:  # run on cluster
         sys_call = 'starccm+ ' \
                    '-podkey {pod} ' \
                    '-licpath {lic} ' \
@@ -173,9 +219,9 @@ def call_starccmplus(adj_flag = False):
                    '-np {np} ' \
                    '-classpath {jar} ' \
                    '-machinefile {nodes} ' \
-                   '-jvmargs -Dadj_flag={adjoint} ' \
+                   '-jvmargs "{jvmargs}" ' \
                    '-batch {macro} {sim} ' \
-                   '> star.log'.format(**star_flags)
+                   '> {log}'.format(**flags)
     else:  # run on desktop
         sys_call = 'starccm+ ' \
                    '-cpubind ' \
@@ -185,10 +231,190 @@ def call_starccmplus(adj_flag = False):
                    '-power ' \
                    '-np {np} ' \
                    '-classpath {jar} ' \
-                   '-jvmargs -Dadj_flag={adjoint} ' \
+                   '-jvmargs "{jvmargs}" ' \
                    '-batch {macro} {sim} ' \
-                   '> star.log'.format(**star_flags)
-    subprocess.run(sys_call, shell=True)\
+                   '> {log}'.format(**flags)
+    return sys_call
+
+
+def call_starccmplus(adj_flag = False):
+    """
+    DESCRIPTION
+    Calls STAR-CCM+ and evaluates the current design x. This is accomplished by
+    a java {macro}, which has logic to read/write values contained in the CSV
+    files (IndependentVariables.csv and DependentVariables.csv) that were just
+    updated in the parent function calling this one. In server mode (-port),
+    the design is sent to the evaluation server instead of starting STAR-CCM+.
+
+    ARGUMENTS
+    :param adj_flag: a flag to turn adjoint solver off during line search (save time)
+
+    OUTPUTS
+    :return: none (output values written to CSV file DependentVariables.csv)
+    """
+    global grad_tol
+    star_flags["adjoint"] = adj_flag
+    grad_tol = gradient_tolerance() if adj_flag and args.grad_tol_0 > 0 else None
+    if args.port is not None:
+        call_server(adj_flag)
+        return
+    jvmargs = '-Dadj_flag={adjoint}'.format(**star_flags)
+    if grad_tol is not None:
+        jvmargs += ' -Dgrad_tol={}'.format(grad_tol)
+    sys_call = star_command(star_flags["macro"], jvmargs, 'star.log')
+    subprocess.run(sys_call, shell=True)
+
+
+def start_server():
+    """
+    DESCRIPTION
+    Starts STAR-CCM+ once, running the evaluation server macro, and connects to
+    it. The simulation then stays loaded until stop_server() is called.
+    """
+    global server, server_stream, server_process
+    sys_call = star_command(args.server_macro, '-Dport={}'.format(args.port), 'server.log')
+    server_process = subprocess.Popen(sys_call, shell=True)
+    while server is None:  # wait for STAR-CCM+ to load the simulation and listen
+        if server_process.poll() is not None:
+            raise RuntimeError("Evaluation server exited (see server.log)")
+        try:
+            server = socket.create_connection(("localhost", args.port))
+        except OSError:
+            time.sleep(5)
+    server_stream = server.makefile("r")
+
+
+def call_server(adj_flag):
+    """
+    DESCRIPTION
+    Sends the current design x to the evaluation server and stores the reply
+    (same table as DependentVariables.csv) in server_output.
+
+    ARGUMENTS
+    :param adj_flag: a flag to turn adjoint solver off during line search (save time)
+    """
+    global server_output
+    if grad_tol is not None:
+        server.sendall("TOLERANCE {}\n".format(grad_tol).encode())
+        reply = server_stream.readline().rstrip("\n")
+        if reply != "OK":
+            raise RuntimeError("Evaluation server: " + reply)
+    x = inputs["X"].values
+    request = "EVALUATE {} {}\n".format(adj_flag, " ".join(repr(float(value)) for value in x))
+    server.sendall(request.encode())
+    lines = []
+    while True:
+        line = server_stream.readline()
+        if not line:
+            raise RuntimeError("Evaluation server closed the connection (see server.log)")
+        line = line.rstrip("\n")
+        if line == "END":
+            break
+        if line.startswith("ERROR"):
+            raise RuntimeError("Evaluation server: " + line)
+        lines.append(line)
+    server_output = pd.read_csv(io.StringIO("\n".join(lines)))
+
+
+def gradient_tolerance():
+    """
+    DESCRIPTION
+    Returns how accurate (relative) the gradients at the current design x need
+    to be. Early iterations do not need fully converged adjoints: the tolerance
+    starts at -gradtol0, is halved every iteration, and is never looser than the
+    last step taken (relative to x), nor tighter than -gradtolmin.
+
+    OUTPUTS
+    :return: relative gradient tolerance (scalar)
+    """
+    tolerance = args.grad_tol_0 * 0.5 ** iteration
+    x = inputs["X"].values
+    if x_previous is not None:
+        step = np.linalg.norm(x - x_previous) / max(np.linalg.norm(x_previous), 1e-12)
+        tolerance = min(tolerance, step)
+    return max(tolerance, args.grad_tol_min)
+
+
+def stop_server():
+    """
+    DESCRIPTION
+    Tells the evaluation server to save the simulation and exit.
+    """
+    if server is not None:
+        server.sendall(b"STOP\n")
+        server_stream.readline()  # BYE
+        server.close()
+        server_process.wait()
+
+
+def write_active_set():
+    """
+    DESCRIPTION
+    Writes the "Active" column of DependentVariables.csv before gradients are
+    computed at the current design x: 1 if the gradient is needed, 0 if not
+    (its adjoint is then not solved, and its gradient is written as 0).
+    Objectives and equality constraints are always active; an inequality
+    constraint is inactive if -activetol is given and g(x) is above it.
+    """
+    table = pd.read_csv("DependentVariables.csv")
+    active = np.ones(len(table), dtype=int)
+    if args.active_tol is not None and n_g > 0 and g[0] is not None:
+        for i in range(0, n_g):
+            if float(np.ravel(g)[i]) > args.active_tol:
+                active[g_indices[i]] = 0
+    table["Active"] = active
+    table.to_csv("DependentVariables.csv", index=False)
+
+
+def read_output(is_gradient=False):
+    """
+    DESCRIPTION
+    Returns the latest dependent variables: the server reply in server mode,
+    otherwise the content of DependentVariables.csv. If the evaluation failed
+    (Status other than OK, e.g. Diverged or AdjointDiverged), the values (or
+    gradients) are NaN and EvaluationFailed is raised instead: the values of a
+    failed trial design are then penalized (see penalty), while failed
+    gradients stop the optimization.
+
+    ARGUMENTS
+    :param is_gradient: True if the gradients are read too
+
+    OUTPUTS
+    :return: dependent variables (pandas data frame)
+    """
+    output = server_output if server_output is not None else pd.read_csv("DependentVariables.csv")
+    status = str(output["Status"].iloc[0]) if "Status" in output else "OK"
+    columns = ["F"] + ([column for column in output.columns if column.startswith("dFd")] if is_gradient else [])
+    if output[columns].isnull().values.any():
+        raise EvaluationFailed("evaluation of x = " + str(list(inputs["X"].values)) + " failed (" + status + ")")
+    if status != "OK":
+        print("WARNING: evaluation status " + status)
+    if grad_tol is not None and "Accuracy" in output and (output["Accuracy"] > grad_tol).any():
+        print("WARNING: gradients less accurate than requested (" + str(output["Accuracy"].max()) + ")")
+    return output
+
+
+def penalty(values, direction):
+    """
+    DESCRIPTION
+    Returns the values given to the optimizer for a design that could not be
+    evaluated (e.g. a line search step too long for the mesh to morph): the
+    last values evaluated, made worse by -penalty times their size, so that
+    the optimizer backs off (the line search shrinks its step) instead of
+    receiving NaN.
+
+    ARGUMENTS
+    :param values: last values evaluated (array)
+    :param direction: +1 to increase them (objective), -1 to decrease them
+    (inequality constraints g >= 0), 0 to move them away from 0 (equality
+    constraints h = 0)
+
+    OUTPUTS
+    :return: penalized values (array)
+    """
+    if direction == 0:
+        direction = np.where(values < 0, -1.0, 1.0)
+    return values + direction * args.penalty * (np.abs(values) + 1.0)
 
 
 def obj_func(x):
@@ -201,14 +427,23 @@ def obj_func(x):
     :param x: current design to evaluate (array of values)
 
     OUTPUTS
-    :return y: value of objective function evaluated at x (scalar)
+    :return y: value of objective function evaluated at x (scalar), penalized
+    if the evaluation failed (see penalty)
     """
-    global f
+    global f, f_good
     inputs["X"] = x
     inputs.to_csv("IndependentVariables.csv", index=False)
     call_starccmplus(adj_flag=False)
-    output = pd.read_csv("DependentVariables.csv")
+    try:
+        output = read_output()
+    except EvaluationFailed as e:
+        if f_good is None:  # nothing evaluated yet to back off to
+            raise
+        print("WARNING: " + str(e) + ", penalized")
+        f = penalty(f_good, 1)
+        return f.ravel()
     f = np.reshape(output["F"][f_mask].values, (-1, 1))
+    f_good = f
     return f.ravel()
 
 
@@ -224,10 +459,13 @@ def obj_func_jac(x):
     OUTPUTS
     :return dfdx: gradient of f with respect to x
     """
+    global x_previous
     inputs["X"] = x
     inputs.to_csv("IndependentVariables.csv", index=False)
+    write_active_set()
     call_starccmplus(adj_flag=True)
-    output = pd.read_csv("DependentVariables.csv")
+    output = read_output(is_gradient=True)
+    x_previous = np.array(x, dtype=float)
     for i in range(0, n_f):
         for j in range(0, n_var):
             dfdx[i, j] = output["dFdx" + str(j + 1)][f_indices]  # +1 b/c assumes x starts at x1, x2, ...
@@ -249,12 +487,19 @@ def eq_const(x):
     because that's how the optimizer works.
 
     OUTPUTS
-    :return: h(x)
+    :return: h(x), penalized if the evaluation failed (see penalty)
     """
-    global h
+    global h, h_good
     if n_h > 0:
-        output = pd.read_csv("DependentVariables.csv")
+        try:
+            output = read_output()
+        except EvaluationFailed:
+            if h_good is None:  # nothing evaluated yet to back off to
+                raise
+            h = penalty(h_good, 0)
+            return h.ravel()
         h = np.reshape(output["F"][h_mask].values, (-1, 1)) - h_targets
+        h_good = h
         return h.ravel()
     else:
         print("No equality constraints to evaluate. eq_const(x) should not be called.")
@@ -276,12 +521,19 @@ def ineq_const(x):
     because that's how the optimizer works.
 
     OUTPUTS
-    :return: g(x)
+    :return: g(x), penalized if the evaluation failed (see penalty)
     """
-    global g
+    global g, g_good
     if n_g > 0:
-        output = pd.read_csv("DependentVariables.csv")
+        try:
+            output = read_output()
+        except EvaluationFailed:
+            if g_good is None:  # nothing evaluated yet to back off to
+                raise
+            g = penalty(g_good, -1)
+            return g.ravel()
         g = np.reshape(output["F"][g_mask].values, (-1, 1)) - g_targets
+        g_good = g
         return g.ravel()
     else:
         print("No inequality constraints to evaluate. ineq_const(x) should not be called.")
@@ -305,7 +557,7 @@ def eq_const_jac(x):
     :return: jacobian of h
     """
     if n_h > 0:
-        output = pd.read_csv("DependentVariables.csv")
+        output = read_output(is_gradient=True)
         for i in range(0, n_h):
             for j in range(0, n_var):
                 dhdx[i, j] = output["dFdx" + str(j + 1)][h_indices]  # +1 b/c assumes x starts at x1, x2, ...
@@ -331,7 +583,7 @@ def ineq_const_jac(x):
     :return: jacobian of g
     """
     if n_g > 0:
-        output = pd.read_csv("DependentVariables.csv")
+        output = read_output(is_gradient=True)
         for i in range(0, n_g):
             for j in range(0, n_var):
                 dgdx[i, j] = output["dFdx" + str(j + 1)][g_indices]  # +1 b/c assumes x starts at x1, x2, ...
@@ -409,14 +661,24 @@ else:
 
 # Optimiser Call
 print('Running optimization...')
-best = minimize(obj_func,
-                x_0,
-                jac=obj_func_jac,
-                constraints=cons,
-                method='SLSQP',
-                callback=callback,
-                options={'disp': True, 'maxiter': args.max_iter, 'ftol': 1e-06},
-                bounds=var_bounds)
-print()
-print('Best Design:')
-print(best)
\ No newline at end of file
+if args.port is not None:
+    start_server()
+best = None
+try:
+    best = minimize(obj_func,
+                    x_0,
+                    jac=obj_func_jac,
+                    constraints=cons,
+                    method='SLSQP',
+                    callback=callback,
+                    options={'disp': True, 'maxiter': args.max_iter, 'ftol': 1e-06},
+                    bounds=var_bounds)
+except EvaluationFailed as e:  # x0, or gradients at an accepted design, failed: stop here, history so far is printed above
+    print()
+    print('Optimization stopped: ' + str(e))
+finally:
+    stop_server()
+if best is not None:
+    print()
+    print('Best Design:')
+    print(best)
\ No newline at end of file
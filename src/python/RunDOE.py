@@ -31,6 +31,16 @@ def parse_value(filename, header):
                     continue
     return value
 
+# This method reads the result store written by the macros (see ResultStore.java) and returns 
+# the latest record of each case as a dictionary, id (as a string) -> record (empty if no store)
+# e.g. filename = name of result store (e.g. Results.csv)
+def read_results(filename):
+    if not os.path.isfile(filename) or os.path.getsize(filename) == 0:
+        return dict()
+    results = pd.read_csv(filename, dtype={"id": str})
+    results = results.drop_duplicates(subset="id", keep="last")
+    return {str(row["id"]): row for _, row in results.iterrows()}
+
 # -----------------------------------------------------------------------------------------------------
 # COMMAND LINE ARGUMENTS
 # -----------------------------------------------------------------------------------------------------
@@ -78,6 +88,10 @@ parser.add_argument("-lic", action="store", dest="licencepath", type=str,
                     default="1999@flex.cd-adapco.com",
                     help='License server')	
 
+parser.add_argument("-results", action="store", dest="results_file", type=str,
+                    default="Results.csv",
+                    help='Result store written by the macro (cases already in it are skipped)')
+
 args = parser.parse_args()
 
 # -----------------------------------------------------------------------------------------------------
@@ -89,9 +103,13 @@ doe = pd.read_csv(args.doe_file)
 number_cases = doe.shape[0]
 
 # Create columns for the outputs
-doe["CL"] = None
-doe["CD"] = None
-doe["CM"] = None
+for name in ["CL", "CD", "CM"]:
+    if name not in doe:
+        doe[name] = None
+
+# Result store (cases already in it were done by an earlier run)
+results_file = os.path.join(args.work_dir, args.results_file)
+results = read_results(results_file)
 
 # Initialize dictionary
 inputs = dict({"jar": args.class_path,
@@ -112,6 +130,7 @@ inputs = dict({"jar": args.class_path,
                "a": None,
                "alpha": None,
                "save": None,
+               "results": results_file,
                "id": None})
 
 # Loop over DOE
@@ -129,6 +148,13 @@ for i in range(0, number_cases):
     inputs["alpha"] = doe['alpha'].iloc[i]
     inputs["save"] = "case_" + str(inputs["id"]) + ".sim"
 
+    # Skip cases done by an earlier run
+    if str(inputs["id"]) in results:
+        print("Case " + str(inputs["id"]) + " already in " + results_file + ", skipped")
+        for name in ["CL", "CD", "CM"]:
+            doe.loc[i, name] = results[str(inputs["id"])][name]
+        continue
+
     # Display case separator
     print("*************************")
     if inputs["id"] < 10:
@@ -160,6 +186,8 @@ for i in range(0, number_cases):
                    '-jvmargs -Dmu={mu} ' \
                    '-jvmargs -Da={a} ' \
                    '-jvmargs -Dsave={save} ' \
+                   '-jvmargs -Dcase_id={id} ' \
+                   '-jvmargs -Dresults={results} ' \
                    '-batch {macro} {sim} ' \
                    '> case_{id}.log'.format(**inputs)
     elif inputs["jar"]:
@@ -180,6 +208,8 @@ for i in range(0, number_cases):
                    '-jvmargs -Dmu={mu} ' \
                    '-jvmargs -Da={a} ' \
                    '-jvmargs -Dsave={save} ' \
+                   '-jvmargs -Dcase_id={id} ' \
+                   '-jvmargs -Dresults={results} ' \
                    '-batch {macro} {sim} ' \
                    '> case_{id}.log'.format(**inputs)
     else:
@@ -199,6 +229,8 @@ for i in range(0, number_cases):
                    '-jvmargs -Dmu={mu} ' \
                    '-jvmargs -Da={a} ' \
                    '-jvmargs -Dsave={save} ' \
+                   '-jvmargs -Dcase_id={id} ' \
+                   '-jvmargs -Dresults={results} ' \
                    '-batch {macro} {sim} ' \
                    '> case_{id}.log'.format(**inputs)
     print(sys_call)
@@ -206,15 +238,16 @@ for i in range(0, number_cases):
     # Run Star-CCM+
     subprocess.run(sys_call, shell=True)
 
-    # Post-process: extract CD, CL, CM and write to file
-    CL = parse_value('case_{id}.log'.format(**inputs), "CL")
-    CD = parse_value('case_{id}.log'.format(**inputs), "CD")
-    CM = parse_value('case_{id}.log'.format(**inputs), "CM")
+    # Post-process: read CD, CL, CM from the result store (or the log, if the macro recorded none)
+    record = read_results(results_file).get(str(inputs["id"]))
+    for name in ["CL", "CD", "CM"]:
+        if record is not None:
+            doe.loc[i, name] = record[name]
+        else:
+            doe.loc[i, name] = parse_value('case_{id}.log'.format(**inputs), name)
 
-    # Update doe
-    doe.loc[i, 'CL'] = CL
-    doe.loc[i, 'CD'] = CD
-    doe.loc[i, 'CM'] = CM
+    # Write doe to file (after every case, so that progress is not lost)
+    doe.to_csv(args.doe_file, index=False)
 
 # Write doe to file
 doe.to_csv(args.doe_file, index=False)